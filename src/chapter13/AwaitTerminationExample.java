@@ -45,8 +45,11 @@ public class AwaitTerminationExample {
     }
 
     public static void main(String[] args) {
-        // Create one other thread to submit tasks to. So we have that thread, and this main thread, running at the same time.
-        ExecutorService taskRunner = Executors.newSingleThreadExecutor();
+        // By default, one other thread runs the tasks one after the other, while this main thread waits in "awaitTermination".
+        // With a pool or thread per task as program argument (like "fixed" or "virtual"), the 3 tasks run at the same time.
+        ExecutorStrategy executorStrategy = ExecutorStrategy.fromArgs(args, ExecutorStrategy.SINGLE_THREAD);
+        System.out.println(addThreadToMessage("Submitting tasks to " + executorStrategy.description()));
+        ExecutorService taskRunner = executorStrategy.newExecutorService(3);
 
         Callable<Map<Thread, StackTraceElement[]>> task1 = () -> getStackTraces(1);
         Callable<Map<Thread, StackTraceElement[]>> task2 = () -> getStackTraces(2);
@@ -46,8 +46,11 @@ public class AwaitTerminationUsingBlockingGetExample {
     }
 
     public static void main(String[] args) {
-        // Create one other thread to submit tasks to. So we have that thread, and this main thread, running at the same time.
-        ExecutorService taskRunner = Executors.newSingleThreadExecutor();
+        // By default, one other thread runs the tasks one after the other, while this main thread blocks in "Future.get".
+        // With a pool or thread per task as program argument (like "fixed" or "virtual"), "get" waits for the slowest task.
+        ExecutorStrategy executorStrategy = ExecutorStrategy.fromArgs(args, ExecutorStrategy.SINGLE_THREAD);
+        System.out.println(addThreadToMessage("Submitting tasks to " + executorStrategy.description()));
+        ExecutorService taskRunner = executorStrategy.newExecutorService(3);
 
         Callable<Map<Thread, StackTraceElement[]>> task1 = () -> getStackTraces(1);
         Callable<Map<Thread, StackTraceElement[]>> task2 = () -> getStackTraces(2);
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmark of the wall time of many blocking tasks (each sleeping for a short while, like waiting for I/O) under each
+ * {@link ExecutorStrategy}. The wall time of a single thread, fixed pool or fork/join pool grows with the number of
+ * tasks divided by the number of threads, whereas a thread per task keeps all tasks blocked at the same time. The peak
+ * number of live threads in the JVM shows what that costs.
+ * <p>
+ * The program takes optional program arguments for the number of tasks (default 10,000), the sleep time per task in
+ * milliseconds (default 1), and the parallelism of the fixed and fork/join pools (default twice the number of processors).
+ *
+ * @author Chris de Vreeze
+ */
+public class BlockingTaskBenchmark {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private record Result(long wallNanos, int peakThreads) {
+    }
+
+    private static Result runTasks(ExecutorStrategy executorStrategy, int numberOfTasks, long sleepMillis, int parallelism)
+            throws InterruptedException, ExecutionException {
+        List<Callable<Void>> tasks = IntStream.range(0, numberOfTasks)
+                .mapToObj(i -> (Callable<Void>) () -> {
+                    Thread.sleep(sleepMillis);
+                    return null;
+                })
+                .toList();
+
+        ExecutorService executorService = executorStrategy.newExecutorService(parallelism);
+        THREAD_MX_BEAN.resetPeakThreadCount();
+        long start = System.nanoTime();
+        try {
+            List<Future<Void>> futures = executorService.invokeAll(tasks);
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        long wallNanos = System.nanoTime() - start;
+        int peakThreads = THREAD_MX_BEAN.getPeakThreadCount();
+        if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Executor did not terminate: " + executorStrategy.description());
+        }
+        return new Result(wallNanos, peakThreads);
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int numberOfTasks = (args.length == 0) ? 10_000 : Integer.parseInt(args[0]);
+        long sleepMillis = (args.length <= 1) ? 1 : Long.parseLong(args[1]);
+        int parallelism = (args.length <= 2) ? 2 * Runtime.getRuntime().availableProcessors() : Integer.parseInt(args[2]);
+
+        // Warm-up, so that the JIT compiler has done its work before measuring
+        for (ExecutorStrategy executorStrategy : ExecutorStrategy.values()) {
+            runTasks(executorStrategy, Math.min(numberOfTasks, 100), sleepMillis, parallelism);
+        }
+
+        System.out.printf(
+                "%,d tasks sleeping %d ms each (at best %d ms of sleep in total on a single thread), parallelism %d:%n",
+                numberOfTasks,
+                sleepMillis,
+                numberOfTasks * sleepMillis,
+                parallelism);
+        for (ExecutorStrategy executorStrategy : ExecutorStrategy.values()) {
+            Result result = runTasks(executorStrategy, numberOfTasks, sleepMillis, parallelism);
+            System.out.printf(
+                    "  %-60s wall time %6d ms, %,10.0f tasks/s, peak live threads %5d%n",
+                    executorStrategy.description() + ":",
+                    result.wallNanos() / 1_000_000,
+                    numberOfTasks * 1_000_000_000.0 / result.wallNanos(),
+                    result.peakThreads());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark of the counting techniques shown in {@link MultiThreadedCountingExample}, measuring throughput and latency
+ * percentiles of increments at 1 to 64 threads (doubling the number of threads each time).
+ * <p>
+ * The counters are not the ones of that example, but standalone 64-bit counters using the same techniques: a
+ * ReentrantLock, an AtomicLong, an AtomicReference to an immutable record, a VarHandle compare-and-set loop, a LongAdder
+ * and a {@link StripedCounter}. They count in longs, so that long or fast runs do not overflow, and they leave out the
+ * recording of thread names that the example does.
+ * <p>
+ * Each run lets all threads increment the same counter as fast as possible for a fixed duration. The latency of every
+ * 16th increment is sampled with System.nanoTime, whose resolution is in the order of tens of nanoseconds, so low
+ * percentiles mainly show timer overhead, while high percentiles show contention (and descheduling, if there are more
+ * threads than processors). At the end of each run the counter value is checked against the number of increments.
+ * <p>
+ * The program takes optional program arguments for the duration of each run in milliseconds (default 500) and the
+ * maximum number of threads (default 64).
+ *
+ * @author Chris de Vreeze
+ */
+public class CounterBenchmark {
+
+    private static final int SAMPLE_EVERY = 16;
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 16;
+
+    private interface Counter {
+
+        void increment();
+
+        long value();
+    }
+
+    private record Strategy(String name, Supplier<Counter> counterFactory) {
+    }
+
+    private record Result(long increments, long elapsedNanos, long p50Nanos, long p99Nanos, long p999Nanos) {
+
+        double incrementsPerSecond() {
+            return increments * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+
+    private static final class LockCounter implements Counter {
+
+        private final Lock lock = new ReentrantLock();
+        private long count = 0;
+
+        @Override
+        public void increment() {
+            lock.lock();
+            try {
+                count += 1;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public long value() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private record ImmutableCount(long count) {
+    }
+
+    private static final class VarHandleCounter implements Counter {
+
+        private static final VarHandle COUNT;
+
+        static {
+            try {
+                COUNT = MethodHandles.lookup().findVarHandle(VarHandleCounter.class, "count", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private volatile long count = 0;
+
+        @Override
+        public void increment() {
+            long current;
+            do {
+                current = count;
+            } while (!COUNT.compareAndSet(this, current, current + 1));
+        }
+
+        @Override
+        public long value() {
+            return count;
+        }
+    }
+
+    private static List<Strategy> strategies() {
+        return List.of(
+                new Strategy("ReentrantLock", LockCounter::new),
+                new Strategy("AtomicLong", () -> {
+                    var counter = new AtomicLong();
+                    return counter(counter::incrementAndGet, counter::get);
+                }),
+                new Strategy("AtomicReference<record>", () -> {
+                    var counter = new AtomicReference<>(new ImmutableCount(0));
+                    return counter(() -> counter.updateAndGet(c -> new ImmutableCount(c.count() + 1)), () -> counter.get().count());
+                }),
+                new Strategy("VarHandle CAS", VarHandleCounter::new),
+                new Strategy("LongAdder", () -> {
+                    var counter = new LongAdder();
+                    return counter(counter::increment, counter::sum);
+                }),
+                new Strategy("StripedCounter", () -> {
+                    var counter = new StripedCounter();
+                    return counter(counter::increment, counter::sum);
+                }));
+    }
+
+    private static Counter counter(Runnable increment, Supplier<Number> value) {
+        return new Counter() {
+            @Override
+            public void increment() {
+                increment.run();
+            }
+
+            @Override
+            public long value() {
+                return value.get().longValue();
+            }
+        };
+    }
+
+    private static final class Worker extends Thread {
+
+        private final Counter counter;
+        private final CyclicBarrier barrier;
+        private final long[] samples = new long[MAX_SAMPLES_PER_THREAD];
+        private volatile boolean stopped = false;
+        private int sampleCount = 0;
+        private long increments = 0;
+        private long startNanos;
+        private long endNanos;
+
+        Worker(Counter counter, CyclicBarrier barrier) {
+            this.counter = counter;
+            this.barrier = barrier;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            startNanos = System.nanoTime();
+            long n = 0;
+            while (!stopped) {
+                for (int i = 1; i < SAMPLE_EVERY; i++) {
+                    counter.increment();
+                }
+                long start = System.nanoTime();
+                counter.increment();
+                long latency = System.nanoTime() - start;
+                // Once the sample buffer is full, older samples are overwritten
+                samples[sampleCount++ & (MAX_SAMPLES_PER_THREAD - 1)] = latency;
+                n += SAMPLE_EVERY;
+            }
+            endNanos = System.nanoTime();
+            increments = n;
+        }
+
+        long[] samples() {
+            return Arrays.copyOf(samples, Math.min(sampleCount, MAX_SAMPLES_PER_THREAD));
+        }
+    }
+
+    private static Result run(Strategy strategy, int numberOfThreads, long durationMillis) throws Exception {
+        Counter counter = strategy.counterFactory().get();
+        var barrier = new CyclicBarrier(numberOfThreads + 1);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < numberOfThreads; i++) {
+            var worker = new Worker(counter, barrier);
+            workers.add(worker);
+            worker.start();
+        }
+        barrier.await();
+        Thread.sleep(durationMillis);
+        workers.forEach(worker -> worker.stopped = true);
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        // Measured by the workers themselves, because with more threads than processors they may run for a while
+        // before the main thread is scheduled again
+        long start = workers.stream().mapToLong(worker -> worker.startNanos).min().orElseThrow();
+        long end = workers.stream().mapToLong(worker -> worker.endNanos).max().orElseThrow();
+        long elapsedNanos = end - start;
+
+        long increments = workers.stream().mapToLong(worker -> worker.increments).sum();
+        if (counter.value() != increments) {
+            throw new IllegalStateException(
+                    String.format("%s lost updates: %d instead of %d", strategy.name(), counter.value(), increments));
+        }
+        long[] samples = workers.stream().map(Worker::samples).flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Result(increments, elapsedNanos, percentile(samples, 50), percentile(samples, 99), percentile(samples, 99.9));
+    }
+
+    private static long percentile(long[] sortedSamples, double percentile) {
+        if (sortedSamples.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedSamples.length) - 1;
+        return sortedSamples[Math.max(0, Math.min(index, sortedSamples.length - 1))];
+    }
+
+    public static void main(String[] args) throws Exception {
+        long durationMillis = (args.length == 0) ? 500 : Long.parseLong(args[0]);
+        int maxThreads = (args.length <= 1) ? 64 : Integer.parseInt(args[1]);
+
+        System.out.printf("Available processors: %d%n", Runtime.getRuntime().availableProcessors());
+
+        // Warm-up, so that the JIT compiler has done its work before measuring
+        for (Strategy strategy : strategies()) {
+            run(strategy, 2, durationMillis / 2);
+        }
+
+        System.out.printf("%-24s %7s %16s %9s %9s %9s%n", "Counter", "Threads", "Increments/s", "p50 ns", "p99 ns", "p99.9 ns");
+        for (Strategy strategy : strategies()) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Result result = run(strategy, threads, durationMillis);
+                System.out.printf(
+                        "%-24s %7d %,16.0f %9d %9d %9d%n",
+                        strategy.name(),
+                        threads,
+                        result.incrementsPerSecond(),
+                        result.p50Nanos(),
+                        result.p99Nanos(),
+                        result.p999Nanos());
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import common.VirtualThreads;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Strategy for creating the ExecutorService that tasks are submitted to, selectable by name on the command line.
+ * <p>
+ * The strategies differ in how well they cope with blocking tasks (like "Thread.sleep" or I/O). A single thread or a
+ * fixed pool runs at most that many blocking tasks at the same time. So does a fork/join pool, since it does not add
+ * threads for tasks blocking in "Thread.sleep" (only for "ForkJoinPool.ManagedBlocker"). A virtual thread per task
+ * runs all of them at the same time, at the cost of a cheap thread per task.
+ * <p>
+ * Note that the worker threads of a fork/join pool and virtual threads are daemon threads, so they do not keep the
+ * program alive after the main thread has ended, unlike the threads of the other strategies.
+ *
+ * @author Chris de Vreeze
+ */
+public enum ExecutorStrategy {
+
+    SINGLE_THREAD("single", "single thread") {
+        @Override
+        public ExecutorService newExecutorService(int parallelism) {
+            return Executors.newSingleThreadExecutor();
+        }
+    },
+    FIXED_POOL("fixed", "fixed thread pool") {
+        @Override
+        public ExecutorService newExecutorService(int parallelism) {
+            return Executors.newFixedThreadPool(parallelism);
+        }
+    },
+    FORK_JOIN("fork-join", "fork/join pool") {
+        @Override
+        public ExecutorService newExecutorService(int parallelism) {
+            // Not the common pool, which cannot be shut down
+            return Executors.newWorkStealingPool(parallelism);
+        }
+
+        @Override
+        public boolean usesDaemonThreads() {
+            return true;
+        }
+    },
+    /**
+     * Virtual thread per task, if the JVM supports virtual threads (Java 21 and later). Otherwise, a platform thread per
+     * task (cached and reused for later tasks) is the nearest fallback.
+     */
+    VIRTUAL_THREAD_PER_TASK("virtual", "virtual thread per task") {
+        @Override
+        public ExecutorService newExecutorService(int parallelism) {
+            return VirtualThreads.newThreadPerTaskExecutor("virtual-").orElseGet(Executors::newCachedThreadPool);
+        }
+
+        @Override
+        public boolean usesDaemonThreads() {
+            return VirtualThreads.isSupported();
+        }
+
+        @Override
+        public String description() {
+            return VirtualThreads.isSupported() ? super.description() : "platform thread per task (no virtual threads in this JVM)";
+        }
+    };
+
+    private final String optionName;
+    private final String description;
+
+    ExecutorStrategy(String optionName, String description) {
+        this.optionName = optionName;
+        this.description = description;
+    }
+
+    /**
+     * Creates a new ExecutorService. The parallelism is the number of threads of a fixed or fork/join pool, and is
+     * ignored by the other strategies.
+     */
+    public abstract ExecutorService newExecutorService(int parallelism);
+
+    public boolean usesDaemonThreads() {
+        return false;
+    }
+
+    public String optionName() {
+        return optionName;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    /**
+     * Returns the strategy named by the first program argument, or the given default strategy if there are no program
+     * arguments.
+     */
+    public static ExecutorStrategy fromArgs(String[] args, ExecutorStrategy defaultStrategy) {
+        return (args.length == 0) ? defaultStrategy : fromOptionName(args[0]);
+    }
+
+    /**
+     * Returns the strategy with the given option name (like "fixed" or "virtual"), throwing an exception if there is none.
+     */
+    public static ExecutorStrategy fromOptionName(String optionName) {
+        return Arrays.stream(values())
+                .filter(strategy -> strategy.optionName.equals(optionName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Unknown executor strategy '" + optionName + "'; expected one of " +
+                                Arrays.stream(values()).map(ExecutorStrategy::optionName).toList()));
+    }
+}
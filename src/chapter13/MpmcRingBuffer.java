@@ -0,0 +1,223 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Lock-free bounded multi-producer multi-consumer queue, backed by an array ring buffer, after Dmitry Vyukov's bounded
+ * MPMC queue. Each slot has a sequence number, which tells producers whether the slot is free for their position, and
+ * consumers whether the slot has been filled for their position. So producers only contend with each other on the
+ * enqueue position, and consumers only on the dequeue position, each with a single CAS per operation.
+ * <p>
+ * The enqueue and dequeue positions are kept apart in a padded array (like the cells of a {@link StripedCounter}),
+ * so producers and consumers do not invalidate each other's cache lines ("false sharing").
+ * <p>
+ * The queue never blocks: {@link #offer} returns false if the queue is full, and {@link #poll} returns null if it is
+ * empty. Under concurrent updates, {@link #size} is only an estimate, and iteration is weakly consistent: the iterator
+ * returns elements that were in the queue at some point after its creation, in queue order, and never throws a
+ * ConcurrentModificationException. The iterator does not support removal, so neither do the optional Collection
+ * operations that need it, such as "remove(Object)" and "removeAll".
+ *
+ * @author Chris de Vreeze
+ */
+public final class MpmcRingBuffer<E> extends AbstractQueue<E> {
+
+    private static final int PADDING = 16;
+    private static final int ENQUEUE_POSITION = PADDING;
+    private static final int DEQUEUE_POSITION = 2 * PADDING;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final int mask;
+    private final Object[] elements;
+    private final long[] sequences;
+    private final long[] positions = new long[3 * PADDING];
+
+    /**
+     * Creates a queue with the given capacity, rounded up to a power of 2.
+     */
+    public MpmcRingBuffer(int capacity) {
+        if (capacity < 2 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 2 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new Object[size];
+        this.sequences = new long[size];
+        for (int i = 0; i < size; i++) {
+            sequences[i] = i;
+        }
+        // Publishes the initial sequence numbers to threads that get the queue through a data race
+        VarHandle.releaseFence();
+    }
+
+    @Override
+    public boolean offer(E element) {
+        Objects.requireNonNull(element);
+        long position = (long) LONGS.getVolatile(positions, ENQUEUE_POSITION);
+        while (true) {
+            int slot = (int) position & mask;
+            long sequence = (long) LONGS.getAcquire(sequences, slot);
+            long difference = sequence - position;
+            if (difference == 0) {
+                // The slot is free for this position, if no other producer claims the position first
+                if (LONGS.weakCompareAndSet(positions, ENQUEUE_POSITION, position, position + 1)) {
+                    ELEMENTS.set(elements, slot, element);
+                    // Hands the slot over to the consumer of this position
+                    LONGS.setRelease(sequences, slot, position + 1);
+                    return true;
+                }
+                position = (long) LONGS.getVolatile(positions, ENQUEUE_POSITION);
+            } else if (difference < 0) {
+                // The slot still holds the element of the previous round, so the queue is full
+                return false;
+            } else {
+                // Another producer has already taken this position
+                position = (long) LONGS.getVolatile(positions, ENQUEUE_POSITION);
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        long position = (long) LONGS.getVolatile(positions, DEQUEUE_POSITION);
+        while (true) {
+            int slot = (int) position & mask;
+            long sequence = (long) LONGS.getAcquire(sequences, slot);
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                // The slot has been filled for this position, if no other consumer claims the position first
+                if (LONGS.weakCompareAndSet(positions, DEQUEUE_POSITION, position, position + 1)) {
+                    @SuppressWarnings("unchecked")
+                    E element = (E) ELEMENTS.get(elements, slot);
+                    ELEMENTS.set(elements, slot, null);
+                    // Hands the slot over to the producer of the next round
+                    LONGS.setRelease(sequences, slot, position + mask + 1);
+                    return element;
+                }
+                position = (long) LONGS.getVolatile(positions, DEQUEUE_POSITION);
+            } else if (difference < 0) {
+                // The slot has not been filled yet, so the queue is empty
+                return null;
+            } else {
+                // Another consumer has already taken this position
+                position = (long) LONGS.getVolatile(positions, DEQUEUE_POSITION);
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        long position = (long) LONGS.getVolatile(positions, DEQUEUE_POSITION);
+        int slot = (int) position & mask;
+        if ((long) LONGS.getAcquire(sequences, slot) != position + 1) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        E element = (E) ELEMENTS.getAcquire(elements, slot);
+        // The element may just have been taken by a consumer, in which case it is null
+        return element;
+    }
+
+    @Override
+    public int size() {
+        // Reads the dequeue position first, so that the difference is never negative
+        long dequeuePosition = (long) LONGS.getVolatile(positions, DEQUEUE_POSITION);
+        long enqueuePosition = (long) LONGS.getVolatile(positions, ENQUEUE_POSITION);
+        return (int) Math.max(0, Math.min(enqueuePosition - dequeuePosition, capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new WeaklyConsistentIterator();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[size=%d, capacity=%d]", getClass().getSimpleName(), size(), capacity());
+    }
+
+    /**
+     * Iterator walking the positions from the dequeue position to the enqueue position at the time of its creation.
+     * An element is only returned if the sequence number of its slot still matches its position after reading it,
+     * so it has not been taken by a consumer (and replaced by a producer of the next round) in the meantime.
+     */
+    private final class WeaklyConsistentIterator implements Iterator<E> {
+
+        private final long endPosition;
+        private long position;
+        private E nextElement;
+
+        WeaklyConsistentIterator() {
+            // Reads the dequeue position first, like size does
+            this.position = (long) LONGS.getVolatile(positions, DEQUEUE_POSITION);
+            this.endPosition = (long) LONGS.getVolatile(positions, ENQUEUE_POSITION);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextElement != null;
+        }
+
+        @Override
+        public E next() {
+            E element = nextElement;
+            if (element == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return element;
+        }
+
+        private void advance() {
+            nextElement = null;
+            while (position < endPosition) {
+                int slot = (int) position & mask;
+                long sequence = (long) LONGS.getAcquire(sequences, slot);
+                if (sequence == position + 1) {
+                    @SuppressWarnings("unchecked")
+                    E element = (E) ELEMENTS.getAcquire(elements, slot);
+                    boolean stillThere = (long) LONGS.getAcquire(sequences, slot) == position + 1;
+                    position += 1;
+                    if (element != null && stillThere) {
+                        nextElement = element;
+                        return;
+                    }
+                    // Otherwise the element has just been taken by a consumer
+                } else if (sequence > position + 1) {
+                    // Consumers have already passed this position, so skips ahead to where they are now
+                    position = Math.max(position + 1, (long) LONGS.getVolatile(positions, DEQUEUE_POSITION));
+                } else {
+                    // A producer has claimed this position, but has not filled the slot yet
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -16,18 +16,23 @@
 
 package chapter13;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * Example showing thread-safe counters.
+ * <p>
+ * The optional program arguments are the number of increments per counter, the chunk size (0, the default, for one task
+ * per increment), and the {@link ExecutorStrategy} option name (default "fixed").
  *
  * @author Chris de Vreeze
  */
@@ -35,6 +40,8 @@ public class MultiThreadedCountingExample {
 
     private static final int NUMBER_OF_THREADS = Math.min(Runtime.getRuntime().availableProcessors() * 2, 12);
 
+    private static final int MAX_THREADS_SHOWN = 50;
+
     private record MyCounter(int count, String bogusDescriptionField) {
 
         MyCounter increment() {
@@ -56,9 +63,34 @@ public class MultiThreadedCountingExample {
 
     private final AtomicReference<MyCounter> counter3 = new AtomicReference<>(new MyCounter(0, ""));
 
+    private volatile int counter4 = 0;
+
+    private final LongAdder counter5 = new LongAdder();
+
+    private final StripedCounter counter6 = new StripedCounter();
+
+    private static final VarHandle COUNTER4;
+
+    static {
+        try {
+            COUNTER4 = MethodHandles.lookup().findVarHandle(MultiThreadedCountingExample.class, "counter4", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ExecutorStrategy executorStrategy;
+
+    public MultiThreadedCountingExample(ExecutorStrategy executorStrategy) {
+        this.executorStrategy = executorStrategy;
+    }
+
+    public MultiThreadedCountingExample() {
+        this(ExecutorStrategy.FIXED_POOL);
+    }
+
     private final Callable<Integer> incrementVeryUnsafeCounter = () -> {
         var currentValue = veryUnsafeCounter;
-        threads.add(Thread.currentThread().getName());
 
         if (currentValue % 1000 == 0) {
             var allStackTraces = Thread.getAllStackTraces();
@@ -78,14 +110,12 @@ public class MultiThreadedCountingExample {
     };
 
     private final Callable<Integer> incrementUnsafeCounter = () -> {
-        threads.add(Thread.currentThread().getName());
         // This assignment is not atomic, so lost updates can occur
         unsafeCounter += 1;
         return unsafeCounter;
     };
 
     private final Callable<Integer> incrementIntCounter = () -> {
-        threads.add(Thread.currentThread().getName());
         try {
             lock.lock();
             counter1 += 1;
@@ -95,30 +125,67 @@ public class MultiThreadedCountingExample {
         }
     };
 
-    private final Callable<Integer> incrementAtomicIntCounter = () -> {
-        threads.add(Thread.currentThread().getName());
-        return counter2.incrementAndGet();
+    private final Callable<Integer> incrementAtomicIntCounter = () -> counter2.incrementAndGet();
+
+    private final Callable<Integer> incrementAtomicReferenceCounter = () -> counter3.updateAndGet(MyCounter::increment).count();
+
+    private final Callable<Integer> incrementVarHandleCounter = () -> {
+        // Compare-and-set loop, like AtomicInteger does internally, but without the extra AtomicInteger object
+        int current;
+        do {
+            current = counter4;
+        } while (!COUNTER4.compareAndSet(this, current, current + 1));
+        return current + 1;
     };
 
-    private final Callable<Integer> incrementAtomicReferenceCounter = () -> {
-        threads.add(Thread.currentThread().getName());
-        return counter3.updateAndGet(MyCounter::increment).count();
+    private final Callable<Integer> incrementLongAdderCounter = () -> {
+        counter5.increment();
+        // Returning the sum would defeat the purpose of a LongAdder, which is cheap to update but not to read
+        return null;
     };
 
+    private final Callable<Integer> incrementStripedCounter = () -> {
+        counter6.increment();
+        // Like for the LongAdder, reading the current value would be relatively expensive
+        return null;
+    };
+
+    private record NamedCounter(String name, Callable<Integer> increment) {
+    }
+
+    private List<NamedCounter> namedCounters() {
+        return List.of(
+                new NamedCounter("very unsafe counter", incrementVeryUnsafeCounter),
+                new NamedCounter("unsafe counter", incrementUnsafeCounter),
+                new NamedCounter("integer counter", incrementIntCounter),
+                new NamedCounter("atomic integer counter", incrementAtomicIntCounter),
+                new NamedCounter("atomic reference counter", incrementAtomicReferenceCounter),
+                new NamedCounter("VarHandle CAS counter", incrementVarHandleCounter),
+                new NamedCounter("LongAdder counter", incrementLongAdderCounter),
+                new NamedCounter("striped counter", incrementStripedCounter));
+    }
+
+    private <T> Callable<T> recordingThread(Callable<T> callable) {
+        return () -> {
+            threads.add(Thread.currentThread().getName());
+            return callable.call();
+        };
+    }
+
+    /**
+     * Runs each increment as a separate task, so most of the time is spent in dispatching tasks and creating futures,
+     * rather than in incrementing the counters.
+     */
     public void run(int numberOfTimes) {
-        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        ExecutorService executorService = executorStrategy.newExecutorService(NUMBER_OF_THREADS);
 
         List<Integer> range = IntStream.range(0, numberOfTimes).boxed().toList();
 
         try {
             List<Callable<Integer>> callables =
-                    Stream.of(
-                            incrementVeryUnsafeCounter,
-                            incrementUnsafeCounter,
-                            incrementIntCounter,
-                            incrementAtomicIntCounter,
-                            incrementAtomicReferenceCounter
-                    ).parallel().flatMap(callable -> range.stream().map(i -> callable)).toList();
+                    namedCounters().stream()
+                            .map(counter -> recordingThread(counter.increment()))
+                            .parallel().flatMap(callable -> range.stream().map(i -> callable)).toList();
 
             List<Future<Integer>> futures = executorService.invokeAll(callables);
 
@@ -131,21 +198,122 @@ public class MultiThreadedCountingExample {
             executorService.shutdown();
         }
 
+        printResults();
+    }
+
+    /**
+     * Runs the increments in chunks, where each task increments a counter chunkSize times in a tight loop. The counters
+     * are measured one after the other, after a warm-up on a separate instance. The cost of dispatching the same number
+     * of (empty) tasks is measured separately, and subtracted to estimate the increments per second of the counter itself.
+     */
+    public void runBatched(int numberOfTimes, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        ExecutorService executorService = executorStrategy.newExecutorService(NUMBER_OF_THREADS);
+
+        try {
+            var warmUpExample = new MultiThreadedCountingExample(executorStrategy);
+            for (NamedCounter counter : warmUpExample.namedCounters()) {
+                warmUpExample.runChunks(executorService, counter.increment(), Math.min(numberOfTimes, 100_000), chunkSize);
+            }
+
+            long dispatchNanos = runChunks(executorService, () -> null, 0, chunkSize, numberOfChunks(numberOfTimes, chunkSize));
+            System.out.printf(
+                    "Dispatch of %d chunk tasks of %d increments to %s: %d ms%n%n",
+                    numberOfChunks(numberOfTimes, chunkSize),
+                    chunkSize,
+                    executorStrategy.description(),
+                    dispatchNanos / 1_000_000);
+
+            for (NamedCounter counter : namedCounters()) {
+                long nanos = runChunks(executorService, counter.increment(), numberOfTimes, chunkSize);
+                // At least 1 ms, in case dispatch happened to take as long as dispatch plus incrementing
+                long incrementNanos = Math.max(nanos - dispatchNanos, 1_000_000);
+                System.out.printf(
+                        "%-25s %6d ms, %,15.0f increments/s (%,15.0f increments/s without dispatch)%n",
+                        counter.name() + ":",
+                        nanos / 1_000_000,
+                        numberOfTimes * 1_000_000_000.0 / nanos,
+                        numberOfTimes * 1_000_000_000.0 / incrementNanos);
+            }
+            System.out.println();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executorService.shutdown();
+        }
+
+        printResults();
+    }
+
+    private static int numberOfChunks(int numberOfTimes, int chunkSize) {
+        return (int) ((numberOfTimes + (long) chunkSize - 1) / chunkSize);
+    }
+
+    private long runChunks(ExecutorService executorService, Callable<Integer> increment, int numberOfTimes, int chunkSize)
+            throws InterruptedException, ExecutionException {
+        return runChunks(executorService, increment, numberOfTimes, chunkSize, numberOfChunks(numberOfTimes, chunkSize));
+    }
+
+    /**
+     * Runs numberOfTimes increments in the given number of tasks, returning the elapsed time in nanoseconds.
+     */
+    private long runChunks(
+            ExecutorService executorService,
+            Callable<Integer> increment,
+            int numberOfTimes,
+            int chunkSize,
+            int numberOfChunks) throws InterruptedException, ExecutionException {
+        List<Callable<Void>> chunks = IntStream.range(0, numberOfChunks)
+                .mapToObj(chunk -> {
+                    int size = Math.max(0, Math.min(chunkSize, numberOfTimes - chunk * chunkSize));
+                    return (Callable<Void>) () -> {
+                        threads.add(Thread.currentThread().getName());
+                        for (int i = 0; i < size; i++) {
+                            increment.call();
+                        }
+                        return null;
+                    };
+                })
+                .toList();
+
+        long start = System.nanoTime();
+        List<Future<Void>> futures = executorService.invokeAll(chunks);
+        for (Future<Void> f : futures) {
+            f.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void printResults() {
         System.out.printf("Value of very unsafe counter: %d%n", veryUnsafeCounter);
         System.out.printf("Value of unsafe counter: %d%n", unsafeCounter);
         System.out.println();
         System.out.printf("Value of integer counter: %d%n", counter1);
         System.out.printf("Value of atomic integer counter: %d%n", counter2.get());
         System.out.printf("Value of atomic reference counter: %d%n", counter3.get().count());
+        System.out.printf("Value of VarHandle CAS counter: %d%n", counter4);
+        System.out.printf("Value of LongAdder counter: %d%n", counter5.sum());
+        System.out.printf("Value of striped counter: %d%n", counter6.sum());
 
         System.out.println();
         System.out.printf("Number of used threads: %d%n", threads.size());
-        System.out.printf("Threads used: %s%n", threads.stream().sorted().toList());
+        // With a thread per task, there can be very many of them
+        System.out.printf("Threads used: %s%n", threads.stream().sorted().limit(MAX_THREADS_SHOWN).toList());
     }
 
     public static void main(String[] args) {
         int howManyTimes = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
-        var countingExample = new MultiThreadedCountingExample();
-        countingExample.run(howManyTimes);
+        // Without chunk size, each increment is a separate task
+        int chunkSize = (args.length <= 1) ? 0 : Integer.parseInt(args[1]);
+        ExecutorStrategy executorStrategy =
+                (args.length <= 2) ? ExecutorStrategy.FIXED_POOL : ExecutorStrategy.fromOptionName(args[2]);
+        var countingExample = new MultiThreadedCountingExample(executorStrategy);
+        if (chunkSize == 0) {
+            countingExample.run(howManyTimes);
+        } else {
+            countingExample.runBatched(howManyTimes, chunkSize);
+        }
     }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import common.VirtualThreads;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drift-free periodic ticker, running on a single thread. The deadline of tick n is "start + n * period", computed from
+ * System.nanoTime, so a late tick does not make the following ticks late as well (unlike a "sleep(period)" loop).
+ * <p>
+ * The lateness of each tick ("jitter") is recorded in a histogram. If a tick is more than a whole period late, the
+ * ticks that should have happened in the meantime are skipped, and reported as missed ticks, instead of being
+ * delivered in a burst. The tick that is delivered is then the latest one that is due. Listeners get the tick number,
+ * so they can compute elapsed time from it, instead of counting delivered ticks.
+ * <p>
+ * The ticker thread is created by the given ThreadFactory, so it can be a platform thread or a virtual thread (see
+ * {@link VirtualThreads}). Ticks are delivered on that thread, so listeners should be quick.
+ *
+ * @author Chris de Vreeze
+ */
+public final class PeriodicTicker {
+
+    /**
+     * Tick number, deadline and actual time (both in nanoseconds since the start of the ticker), and the number of ticks
+     * skipped just before this one.
+     */
+    public record Tick(long number, long deadlineNanos, long actualNanos, long missedTicks) {
+
+        public long latenessNanos() {
+            return actualNanos - deadlineNanos;
+        }
+    }
+
+    @FunctionalInterface
+    public interface TickListener {
+
+        /**
+         * Handles the tick, returning false to stop the ticker.
+         */
+        boolean onTick(Tick tick);
+    }
+
+    public record Summary(long ticks, long missedTicks, JitterHistogram jitter) {
+    }
+
+    /**
+     * Snapshot of the histogram of tick lateness in nanoseconds. Buckets are log-linear: 8 sub-buckets per power of 2,
+     * so the relative error of a percentile is at most 12.5%.
+     */
+    public record JitterHistogram(long[] bucketCounts, long maxNanos) {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        public JitterHistogram {
+            bucketCounts = bucketCounts.clone();
+        }
+
+        public long count() {
+            return Arrays.stream(bucketCounts).sum();
+        }
+
+        /**
+         * Returns the (upper bound of the bucket of the) lateness at the given percentile, or 0 if there are no ticks.
+         */
+        public long valueAtPercentile(double percentile) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        public double percentileMicros(double percentile) {
+            return valueAtPercentile(percentile) / 1_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "JitterHistogram[count=%d, p50=%.1f us, p90=%.1f us, p99=%.1f us, p99.9=%.1f us, max=%.1f us]",
+                    count(),
+                    percentileMicros(50),
+                    percentileMicros(90),
+                    percentileMicros(99),
+                    percentileMicros(99.9),
+                    maxNanos / 1_000.0);
+        }
+
+        static int bucketIndex(long value) {
+            int highestBit = 63 - Long.numberOfLeadingZeros(value | 1);
+            if (highestBit < SUB_BUCKET_BITS) {
+                return (int) value;
+            }
+            int shift = highestBit - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index >>> SUB_BUCKET_BITS) - 1;
+            long lowerBound = ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+            return lowerBound + (1L << shift) - 1;
+        }
+    }
+
+    /**
+     * Recorder of lateness values into a {@link JitterHistogram}, by a single thread at a time. Snapshots can be taken
+     * by any thread, at any time.
+     */
+    public static final class JitterRecorder {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(JitterHistogram.BUCKET_COUNT);
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void record(long latenessNanos) {
+            long value = Math.max(0, latenessNanos);
+            buckets.incrementAndGet(JitterHistogram.bucketIndex(value));
+            if (value > maxNanos.get()) {
+                maxNanos.set(value);
+            }
+        }
+
+        public JitterHistogram snapshot() {
+            long[] counts = new long[JitterHistogram.BUCKET_COUNT];
+            int length = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                if (counts[i] != 0) {
+                    length = i + 1;
+                }
+            }
+            return new JitterHistogram(Arrays.copyOf(counts, length), maxNanos.get());
+        }
+    }
+
+    private final long periodNanos;
+    private final ThreadFactory threadFactory;
+
+    // Written by the ticker thread only, but readable by any thread
+    private final JitterRecorder jitter = new JitterRecorder();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong missedTicks = new AtomicLong();
+
+    private volatile boolean stopped = false;
+    private volatile Thread thread;
+
+    public PeriodicTicker(Duration period, ThreadFactory threadFactory) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("The period must be positive");
+        }
+        this.periodNanos = period.toNanos();
+        this.threadFactory = Objects.requireNonNull(threadFactory);
+    }
+
+    /**
+     * Creates a ticker running on a platform thread of its own.
+     */
+    public PeriodicTicker(Duration period) {
+        this(period, r -> new Thread(r, "periodic-ticker"));
+    }
+
+    /**
+     * Starts the ticker, with the first tick right away. The returned future completes when the listener returns false,
+     * or when the ticker is stopped, and completes exceptionally if the listener throws an exception.
+     */
+    public CompletableFuture<Summary> start(TickListener listener) {
+        Objects.requireNonNull(listener);
+        if (thread != null) {
+            throw new IllegalStateException("Ticker has already been started");
+        }
+        var result = new CompletableFuture<Summary>();
+        thread = threadFactory.newThread(() -> {
+            try {
+                runTicks(listener);
+                result.complete(summary());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Stops the ticker, without waiting for the ticker thread to end.
+     */
+    public void stop() {
+        stopped = true;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Returns the ticks and missed ticks so far, with the jitter histogram. It can be called while the ticker runs.
+     */
+    public Summary summary() {
+        return new Summary(ticks.get(), missedTicks.get(), jitter.snapshot());
+    }
+
+    private void runTicks(TickListener listener) {
+        long startNanos = System.nanoTime();
+        long tickNumber = 0;
+        while (!stopped) {
+            long deadlineNanos = tickNumber * periodNanos;
+            long nowNanos;
+            while ((nowNanos = System.nanoTime() - startNanos) < deadlineNanos && !stopped) {
+                LockSupport.parkNanos(this, deadlineNanos - nowNanos);
+            }
+            if (stopped) {
+                return;
+            }
+            long latenessNanos = nowNanos - deadlineNanos;
+            jitter.record(latenessNanos);
+            ticks.incrementAndGet();
+            // If we are more than a whole period late, the ticks that should have happened in the meantime are skipped,
+            // and the latest tick that is due is delivered instead
+            long missed = latenessNanos / periodNanos;
+            if (missed > 0) {
+                missedTicks.addAndGet(missed);
+                tickNumber += missed;
+                deadlineNanos = tickNumber * periodNanos;
+            }
+
+            if (!listener.onTick(new Tick(tickNumber, deadlineNanos, nowNanos, missed))) {
+                return;
+            }
+            tickNumber += 1;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Benchmark of the {@link MpmcRingBuffer} against the queues of java.util.concurrent, for several numbers of producers
+ * and consumers. All queues are used through the non-blocking {@link Queue} methods "offer" and "poll", and threads
+ * yield while the queue is full or empty (which matters if there are more threads than processors).
+ * <p>
+ * Each producer offers its share of the messages, and the consumers poll until they get a "poison pill", which is
+ * offered (once per consumer) after all messages. The sum of the consumed messages is checked against the sum of the
+ * produced ones. The bounded queues have the same capacity, while the ConcurrentLinkedQueue is unbounded.
+ * <p>
+ * The program takes optional program arguments for the number of messages per run (default 5 million) and the
+ * capacity of the bounded queues (default 1024).
+ *
+ * @author Chris de Vreeze
+ */
+public class QueueBenchmark {
+
+    private record QueueType(String name, IntFunction<Queue<Integer>> factory) {
+    }
+
+    private record Topology(int producers, int consumers) {
+    }
+
+    private static final List<QueueType> QUEUE_TYPES = List.of(
+            new QueueType("MpmcRingBuffer", MpmcRingBuffer::new),
+            new QueueType("ArrayBlockingQueue", ArrayBlockingQueue::new),
+            new QueueType("LinkedBlockingQueue", LinkedBlockingQueue::new),
+            new QueueType("ConcurrentLinkedQueue", capacity -> new ConcurrentLinkedQueue<>()));
+
+    private static final List<Topology> TOPOLOGIES = List.of(
+            new Topology(1, 1),
+            new Topology(2, 2),
+            new Topology(4, 4),
+            new Topology(1, 4),
+            new Topology(4, 1),
+            new Topology(8, 8));
+
+    // Boxed values from the Integer cache, so that the benchmark does not measure allocation of messages
+    private static final int DISTINCT_VALUES = 128;
+
+    // Offered once per consumer by the last producer to finish, after all messages, so each consumer knows when to stop
+    private static final Integer POISON_PILL = -1;
+
+    private static final class Worker extends Thread {
+
+        private final Runnable body;
+        private final CyclicBarrier barrier;
+        private long startNanos;
+        private long endNanos;
+
+        Worker(Runnable body, CyclicBarrier barrier) {
+            this.body = body;
+            this.barrier = barrier;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            startNanos = System.nanoTime();
+            body.run();
+            endNanos = System.nanoTime();
+        }
+    }
+
+    private static long run(Queue<Integer> queue, Topology topology, int numberOfMessages) throws Exception {
+        var barrier = new CyclicBarrier(topology.producers() + topology.consumers());
+        var activeProducers = new AtomicInteger(topology.producers());
+        var producedSum = new AtomicLong();
+        var consumedSum = new AtomicLong();
+        List<Worker> workers = new ArrayList<>();
+
+        for (int p = 0; p < topology.producers(); p++) {
+            int first = p * numberOfMessages / topology.producers();
+            int last = (p + 1) * numberOfMessages / topology.producers();
+            workers.add(new Worker(() -> {
+                long sum = 0;
+                for (int i = first; i < last; i++) {
+                    Integer message = i % DISTINCT_VALUES;
+                    while (!queue.offer(message)) {
+                        Thread.yield();
+                    }
+                    sum += message;
+                }
+                producedSum.addAndGet(sum);
+                if (activeProducers.decrementAndGet() == 0) {
+                    for (int i = 0; i < topology.consumers(); i++) {
+                        while (!queue.offer(POISON_PILL)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }, barrier));
+        }
+        for (int c = 0; c < topology.consumers(); c++) {
+            workers.add(new Worker(() -> {
+                long sum = 0;
+                while (true) {
+                    Integer message = queue.poll();
+                    if (message == null) {
+                        Thread.yield();
+                    } else if (message.equals(POISON_PILL)) {
+                        break;
+                    } else {
+                        sum += message;
+                    }
+                }
+                consumedSum.addAndGet(sum);
+            }, barrier));
+        }
+
+        workers.forEach(Thread::start);
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        if (producedSum.get() != consumedSum.get() || !queue.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "Messages lost or duplicated: produced sum %d, consumed sum %d", producedSum.get(), consumedSum.get()));
+        }
+        long start = workers.stream().mapToLong(worker -> worker.startNanos).min().orElseThrow();
+        long end = workers.stream().mapToLong(worker -> worker.endNanos).max().orElseThrow();
+        return end - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfMessages = (args.length == 0) ? 5_000_000 : Integer.parseInt(args[0]);
+        int capacity = (args.length <= 1) ? 1024 : Integer.parseInt(args[1]);
+
+        System.out.printf("Available processors: %d%n", Runtime.getRuntime().availableProcessors());
+
+        // Warm-up, so that the JIT compiler has done its work before measuring
+        for (QueueType queueType : QUEUE_TYPES) {
+            run(queueType.factory().apply(capacity), new Topology(2, 2), numberOfMessages / 5);
+        }
+
+        System.out.printf("%-22s %9s %9s %16s%n", "Queue", "Producers", "Consumers", "Messages/s");
+        for (Topology topology : TOPOLOGIES) {
+            for (QueueType queueType : QUEUE_TYPES) {
+                long nanos = run(queueType.factory().apply(capacity), topology, numberOfMessages);
+                System.out.printf(
+                        "%-22s %9d %9d %,16.0f%n",
+                        queueType.name(),
+                        topology.producers(),
+                        topology.consumers(),
+                        numberOfMessages * 1_000_000_000.0 / nanos);
+            }
+            System.out.println();
+        }
+    }
+}
@@ -19,13 +19,15 @@ package chapter13;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
  * Example showing that without calling "ExecutorService.awaitTermination" this program ends successfully.
  * This is a case where it is ok for the main thread to be short-lived. The "task runner" thread is not a daemon
  * thread, and it proceeds until it is ready, even if the main thread has terminated.
+ * <p>
+ * That is no longer the case for an executor strategy with daemon threads, like a fork/join pool or virtual threads.
+ * Then the program ends together with the main thread, and the tasks never finish.
  *
  * @author Chris de Vreeze
  */
@@ -47,8 +49,11 @@ public class ShortLivedMainThreadExample {
     }
 
     public static void main(String[] args) {
-        // Create one other thread to submit tasks to. So we have that thread, and this main thread, running at the same time.
-        ExecutorService taskRunner = Executors.newSingleThreadExecutor();
+        // By default, one other (non-daemon) thread runs the tasks, and finishes them after this main thread has ended.
+        // With a daemon thread strategy as program argument (like "fork-join" or "virtual"), the tasks are lost instead.
+        ExecutorStrategy executorStrategy = ExecutorStrategy.fromArgs(args, ExecutorStrategy.SINGLE_THREAD);
+        System.out.println(addThreadToMessage("Submitting tasks to " + executorStrategy.description()));
+        ExecutorService taskRunner = executorStrategy.newExecutorService(3);
 
         Callable<Map<Thread, StackTraceElement[]>> task1 = () -> getStackTraces(1);
         Callable<Map<Thread, StackTraceElement[]>> task2 = () -> getStackTraces(2);
@@ -68,9 +73,12 @@ public class ShortLivedMainThreadExample {
             System.out.println(addThreadToMessage("Just called \"shutDown\""));
         }
         System.out.printf(addThreadToMessage("Task runner is terminated (directly after shutdown): %b%n"), taskRunner.isTerminated());
+        if (executorStrategy.usesDaemonThreads()) {
+            System.out.println(addThreadToMessage("Task runner uses daemon threads, so the unfinished tasks will be lost"));
+        }
         System.out.println(addThreadToMessage("Main thread has finished"));
 
         // The main thread terminates here, but that is ok. The "task runner" thread will still finish its work.
-        // After all, that thread is a non-daemon thread.
+        // After all, that thread is a non-daemon thread (unless the executor strategy uses daemon threads).
     }
 }
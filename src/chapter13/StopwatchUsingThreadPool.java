@@ -16,11 +16,18 @@
 
 package chapter13;
 
+import common.VirtualThreads;
+
+import java.time.Duration;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Just for fun, a stopwatch unnecessarily using a (large) thread pool.
+ * <p>
+ * Alternatively, the stopwatch can use a single-threaded drift-free {@link PeriodicTicker}, on a platform thread or
+ * a virtual thread. In that case the remaining seconds are computed from the tick number, so they remain correct if
+ * ticks are late or missed, and the jitter of the ticks is reported at the end.
  *
  * @author Chris de Vreeze
  */
@@ -82,14 +89,55 @@ public class StopwatchUsingThreadPool {
         }
     }
 
+    public void runWithTicker(ThreadFactory threadFactory) {
+        var ticker = new PeriodicTicker(Duration.ofSeconds(1), threadFactory);
+
+        CompletableFuture<PeriodicTicker.Summary> result = ticker.start(tick -> {
+            if (tick.number() >= startSeconds) {
+                System.out.println("Beep!");
+                return false;
+            }
+            System.out.printf(
+                    "Remaining seconds: %d (current Thread: %s, lateness: %.3f ms%s)%n",
+                    startSeconds - tick.number(),
+                    Thread.currentThread(),
+                    tick.latenessNanos() / 1_000_000.0,
+                    (tick.missedTicks() == 0) ? "" : ", missed ticks: " + tick.missedTicks());
+            System.out.flush();
+            return true;
+        });
+
+        try {
+            PeriodicTicker.Summary summary = result.get();
+            System.out.printf("Ticks: %d, missed ticks: %d%n", summary.ticks(), summary.missedTicks());
+            System.out.printf("Jitter: %s%n", summary.jitter());
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            ticker.stop();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void main(String[] args) {
         int seconds = (args.length == 0) ? DEFAULT_SECONDS : Integer.parseInt(args[0]);
+        // "pool" (the default), "ticker" (a platform thread), or "virtual-ticker" (a virtual thread, if supported)
+        String mode = (args.length <= 1) ? "pool" : args[1];
 
         var availableProcessors = Runtime.getRuntime().availableProcessors();
         System.out.printf("Available processors: %d%n", availableProcessors);
         System.out.flush();
 
         var stopwatch = new StopwatchUsingThreadPool(seconds, availableProcessors);
-        stopwatch.run();
+        switch (mode) {
+            case "pool" -> stopwatch.run();
+            case "ticker" -> stopwatch.runWithTicker(r -> new Thread(r, "stopwatch-ticker"));
+            case "virtual-ticker" -> stopwatch.runWithTicker(
+                    VirtualThreads.threadFactory("stopwatch-ticker-").orElseGet(() -> {
+                        System.out.println("Virtual threads are not supported, so using a platform thread");
+                        return r -> new Thread(r, "stopwatch-ticker");
+                    }));
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
     }
 }
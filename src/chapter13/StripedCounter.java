@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Thread-safe counter striped over padded cells, one of which is picked per thread. So threads incrementing the counter
+ * at the same time typically update different cache lines, and do not contend with each other. Reading the value
+ * sums all cells, so it is more expensive than incrementing, and is not an atomic snapshot under concurrent updates.
+ * <p>
+ * This is a simplified {@link java.util.concurrent.atomic.LongAdder}: the number of cells is fixed, and the cell is
+ * chosen by thread ID instead of by a probe that is rehashed after contention.
+ *
+ * @author Chris de Vreeze
+ */
+public final class StripedCounter {
+
+    // 16 longs are 128 bytes, which covers a cache line (64 bytes) and the adjacent line that may be prefetched with it
+    private static final int PADDING = 16;
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] cells;
+    private final int mask;
+
+    public StripedCounter(int minimumStripes) {
+        if (minimumStripes <= 0) {
+            throw new IllegalArgumentException("The number of stripes must be positive");
+        }
+        int stripes = Integer.highestOneBit(minimumStripes - 1) << 1;
+        if (stripes == 0) {
+            stripes = 1;
+        }
+        this.mask = stripes - 1;
+        // Cell i is at index (i + 1) * PADDING, so there is padding before the first and after the last cell as well
+        this.cells = new long[(stripes + 2) * PADDING];
+    }
+
+    /**
+     * Creates a counter with (at least) twice as many stripes as there are available processors.
+     */
+    public StripedCounter() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public void add(long delta) {
+        // Two threads may map to the same cell, so the update must be atomic
+        CELLS.getAndAdd(cells, cellIndex(), delta);
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += (long) CELLS.getVolatile(cells, (i + 1) * PADDING);
+        }
+        return sum;
+    }
+
+    public int stripes() {
+        return mask + 1;
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        // Fibonacci hashing, so that consecutive thread IDs are spread over the cells
+        int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        return ((hash & mask) + 1) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import common.VirtualThreads;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark of the jitter (lateness) of periodic ticks, comparing "scheduleAtFixedRate" of a scheduled thread pool
+ * (like {@link StopwatchUsingThreadPool} uses) with a {@link PeriodicTicker}, both without and with CPU load
+ * (busy threads, twice as many as there are processors).
+ * <p>
+ * For the thread pool, lateness is measured against the same deadlines as for the ticker ("start + n * period").
+ * A thread pool does not skip ticks, so after a long delay it runs the late ticks in a burst, instead of reporting
+ * them as missed.
+ * <p>
+ * The program takes optional program arguments for the tick period in milliseconds (default 1) and the duration of
+ * each run in seconds (default 5).
+ *
+ * @author Chris de Vreeze
+ */
+public class TickerJitterBenchmark {
+
+    private static List<Thread> startLoad(AtomicBoolean stopLoad) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2 * Runtime.getRuntime().availableProcessors(); i++) {
+            Thread thread = new Thread(() -> {
+                long x = 0;
+                while (!stopLoad.get()) {
+                    x = x * 6364136223846793005L + 1442695040888963407L;
+                }
+                if (x == 42) {
+                    System.out.println("Unlikely");
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static PeriodicTicker.Summary runThreadPool(Duration period, Duration duration) throws InterruptedException {
+        var executorService = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
+        // Thread start-up should not count as lateness of the first tick (and, at a fixed rate, of all later ticks)
+        executorService.prestartAllCoreThreads();
+        var jitter = new PeriodicTicker.JitterRecorder();
+        var tickNumber = new AtomicLong();
+        long periodNanos = period.toNanos();
+        var startNanos = new AtomicLong();
+        // The task is created before taking the start time, so that creating the lambda does not count as lateness
+        Runnable tick = () -> jitter.record(System.nanoTime() - startNanos.get() - tickNumber.getAndIncrement() * periodNanos);
+        startNanos.set(System.nanoTime());
+        executorService.scheduleAtFixedRate(tick, 0, periodNanos, TimeUnit.NANOSECONDS);
+        Thread.sleep(duration.toMillis());
+        executorService.shutdownNow();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+        return new PeriodicTicker.Summary(tickNumber.get(), 0, jitter.snapshot());
+    }
+
+    private static PeriodicTicker.Summary runTicker(Duration period, Duration duration, ThreadFactory threadFactory)
+            throws InterruptedException, ExecutionException {
+        var ticker = new PeriodicTicker(period, threadFactory);
+        long endNanos = duration.toNanos();
+        return ticker.start(tick -> tick.actualNanos() < endNanos).get();
+    }
+
+    private static void print(String description, PeriodicTicker.Summary summary) {
+        System.out.printf("  %-28s ticks %6d, missed %5d, %s%n", description + ":", summary.ticks(), summary.missedTicks(), summary.jitter());
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        Duration period = Duration.ofMillis((args.length == 0) ? 1 : Long.parseLong(args[0]));
+        Duration duration = Duration.ofSeconds((args.length <= 1) ? 5 : Long.parseLong(args[1]));
+
+        System.out.printf("Available processors: %d, period: %s, duration per run: %s%n", Runtime.getRuntime().availableProcessors(), period, duration);
+
+        // Warm-up, so that the JIT compiler has done its work before measuring
+        runThreadPool(period, Duration.ofSeconds(1));
+        runTicker(period, Duration.ofSeconds(1), r -> new Thread(r, "ticker"));
+
+        for (boolean underLoad : List.of(false, true)) {
+            var stopLoad = new AtomicBoolean(false);
+            List<Thread> loadThreads = underLoad ? startLoad(stopLoad) : List.of();
+            System.out.println(underLoad ? "With CPU load:" : "Without CPU load:");
+
+            print("scheduleAtFixedRate", runThreadPool(period, duration));
+            print("PeriodicTicker (platform)", runTicker(period, duration, r -> new Thread(r, "ticker")));
+            var virtualThreadFactory = VirtualThreads.threadFactory("ticker-");
+            if (virtualThreadFactory.isPresent()) {
+                print("PeriodicTicker (virtual)", runTicker(period, duration, virtualThreadFactory.get()));
+            }
+
+            stopLoad.set(true);
+            for (Thread thread : loadThreads) {
+                thread.join();
+            }
+        }
+    }
+}
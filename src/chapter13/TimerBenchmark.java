@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark of the {@link TimingWheelScheduler} against a ScheduledThreadPoolExecutor, with one million outstanding
+ * timers (by default), like timeouts that are scheduled for every request, and almost always cancelled.
+ * <p>
+ * For each scheduler, the program first schedules all timers (with delays of 1 to 2 minutes, so they do not fire),
+ * reporting the time per schedule, the GC activity, and the heap in use (after a full GC) with all timers pending.
+ * Then it cancels all timers, reporting the time per cancellation. Finally it schedules a smaller number of timers
+ * that do fire, within 2 seconds, reporting how late they fire.
+ * <p>
+ * The program takes an optional number of timers (default 1 million) as program argument.
+ *
+ * @author Chris de Vreeze
+ */
+public class TimerBenchmark {
+
+    private record SchedulerType(String name, Supplier<ScheduledExecutorService> factory) {
+    }
+
+    private static final List<SchedulerType> SCHEDULER_TYPES = List.of(
+            new SchedulerType("ScheduledThreadPoolExecutor", () -> {
+                var executor = new ScheduledThreadPoolExecutor(1);
+                // Otherwise cancelled timers stay in the delay queue until their deadline
+                executor.setRemoveOnCancelPolicy(true);
+                return executor;
+            }),
+            new SchedulerType("TimingWheelScheduler", TimingWheelScheduler::new));
+
+    private record GcSnapshot(long collections, long millis) {
+
+        static GcSnapshot take() {
+            long collections = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                collections += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            return new GcSnapshot(collections, millis);
+        }
+
+        GcSnapshot since(GcSnapshot earlier) {
+            return new GcSnapshot(collections - earlier.collections(), millis - earlier.millis());
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void benchmarkPendingTimers(SchedulerType schedulerType, int numberOfTimers) throws InterruptedException {
+        ScheduledExecutorService scheduler = schedulerType.factory().get();
+        Runnable timeout = () -> {
+            throw new IllegalStateException("Timer should have been cancelled");
+        };
+        var random = new Random(42);
+        long[] delaysMillis = random.longs(numberOfTimers, 60_000, 120_000).toArray();
+        List<ScheduledFuture<?>> timers = new ArrayList<>(numberOfTimers);
+
+        long baselineHeap = usedHeapAfterGc();
+        GcSnapshot gcBefore = GcSnapshot.take();
+        long start = System.nanoTime();
+        for (long delayMillis : delaysMillis) {
+            timers.add(scheduler.schedule(timeout, delayMillis, TimeUnit.MILLISECONDS));
+        }
+        long scheduleNanos = System.nanoTime() - start;
+        GcSnapshot gc = GcSnapshot.take().since(gcBefore);
+        // Lets the ticker thread of the timing wheel move all timers into their buckets
+        Thread.sleep(200);
+        long pendingHeap = usedHeapAfterGc() - baselineHeap;
+
+        start = System.nanoTime();
+        for (ScheduledFuture<?> timer : timers) {
+            timer.cancel(false);
+        }
+        long cancelNanos = System.nanoTime() - start;
+
+        System.out.printf("%s, %,d pending timers:%n", schedulerType.name(), numberOfTimers);
+        System.out.printf(
+                "  schedule: %6.0f ns/timer (%d GCs, %d ms GC time); heap with all timers pending: %d MB%n",
+                scheduleNanos / (double) numberOfTimers,
+                gc.collections(),
+                gc.millis(),
+                pendingHeap / (1024 * 1024));
+        System.out.printf("  cancel:   %6.0f ns/timer%n", cancelNanos / (double) numberOfTimers);
+
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Scheduler did not terminate: " + schedulerType.name());
+        }
+    }
+
+    private static void benchmarkFiringTimers(SchedulerType schedulerType, int numberOfTimers) throws InterruptedException {
+        ScheduledExecutorService scheduler = schedulerType.factory().get();
+        var fired = new CountDownLatch(numberOfTimers);
+        var totalLatenessNanos = new LongAdder();
+        var maxLatenessNanos = new LongAccumulator(Math::max, 0);
+        var random = new Random(42);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numberOfTimers; i++) {
+            long delayNanos = random.nextLong(2_000_000_000L);
+            long deadline = System.nanoTime() + delayNanos;
+            scheduler.schedule(() -> {
+                long latenessNanos = System.nanoTime() - deadline;
+                totalLatenessNanos.add(latenessNanos);
+                maxLatenessNanos.accumulate(latenessNanos);
+                fired.countDown();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        fired.await();
+        long elapsedNanos = System.nanoTime() - start;
+
+        System.out.printf(
+                "  %,d firing timers within 2 s: all fired after %d ms, mean lateness %.2f ms, max lateness %.2f ms%n",
+                numberOfTimers,
+                elapsedNanos / 1_000_000,
+                totalLatenessNanos.sum() / (numberOfTimers * 1_000_000.0),
+                maxLatenessNanos.get() / 1_000_000.0);
+
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Scheduler did not terminate: " + schedulerType.name());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int numberOfTimers = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
+
+        // Warm-up, so that the JIT compiler has done its work before measuring
+        for (SchedulerType schedulerType : SCHEDULER_TYPES) {
+            benchmarkPendingTimers(schedulerType, numberOfTimers / 10);
+            benchmarkFiringTimers(schedulerType, numberOfTimers / 100);
+        }
+        System.out.println();
+        System.out.println("After warm-up:");
+        System.out.println();
+
+        for (SchedulerType schedulerType : SCHEDULER_TYPES) {
+            benchmarkPendingTimers(schedulerType, numberOfTimers);
+            benchmarkFiringTimers(schedulerType, numberOfTimers / 10);
+        }
+    }
+}
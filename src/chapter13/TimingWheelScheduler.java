@@ -0,0 +1,489 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter13;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ScheduledExecutorService backed by a hashed timing wheel, as an alternative to a ScheduledThreadPoolExecutor (whose
+ * delay queue is a binary heap) for large numbers of pending timers, such as timeouts that are mostly cancelled.
+ * <p>
+ * The wheel is an array of buckets, each a doubly linked list of timers. A single ticker thread advances the wheel
+ * by one bucket per tick, and runs (or dispatches) the timers of that bucket whose remaining number of rounds is zero.
+ * Scheduling only appends the timer to a lock-free queue, from which the ticker thread moves it into its bucket, and
+ * cancellation only marks the timer and appends it to another queue, from which the ticker thread unlinks it from
+ * its bucket. So both are O(1), and timers that are cancelled do not linger in the wheel until their deadline.
+ * <p>
+ * The price is precision: timers fire at the first tick at or after their deadline, so up to one tick late (and never
+ * early). Tick deadlines are computed from the start time, so slow ticks are caught up, instead of accumulating drift.
+ * <p>
+ * By default, tasks run on the ticker thread, so they must be short. Otherwise, pass an executor to run them on.
+ * After shutdown, delayed tasks still run, and periodic tasks are cancelled (like the default policies of the
+ * ScheduledThreadPoolExecutor). With a task executor, termination does not wait for tasks that have been dispatched.
+ *
+ * @author Chris de Vreeze
+ */
+public final class TimingWheelScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    public record Options(Duration tick, int wheelSize) {
+
+        public Options {
+            if (tick.isNegative() || tick.isZero()) {
+                throw new IllegalArgumentException("The tick duration must be positive");
+            }
+            if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+                throw new IllegalArgumentException("The wheel size must be between 1 and 2^30");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(Duration.ofMillis(1), 512);
+        }
+    }
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+    private static final int TERMINATED = 3;
+
+    private static final AtomicInteger SCHEDULER_COUNTER = new AtomicInteger();
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final Executor taskExecutor;
+    private final long startNanos;
+    private final Thread ticker;
+
+    private final Queue<WheelTask<?>> pendingInserts = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTask<?>> pendingRemovals = new ConcurrentLinkedQueue<>();
+    // Timers that have been scheduled, but not yet expired or removed by the ticker thread
+    private final AtomicInteger pendingTimers = new AtomicInteger();
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    // Only used by the ticker thread
+    private long tick = 0;
+    private List<Runnable> tasksNotRun = List.of();
+
+    /**
+     * Creates a scheduler running its tasks on the given executor (or on the ticker thread, if the executor is null).
+     */
+    public TimingWheelScheduler(Options options, Executor taskExecutor) {
+        this.tickNanos = options.tick().toNanos();
+        // Rounded up to a power of 2, so that the bucket of a tick is found by masking
+        int size = (options.wheelSize() == 1) ? 1 : Integer.highestOneBit(options.wheelSize() - 1) << 1;
+        this.mask = size - 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.taskExecutor = taskExecutor;
+        this.startNanos = System.nanoTime();
+        this.ticker = new Thread(this::runTicker, "timing-wheel-" + SCHEDULER_COUNTER.incrementAndGet());
+        this.ticker.start();
+    }
+
+    public TimingWheelScheduler(Options options) {
+        this(options, null);
+    }
+
+    public TimingWheelScheduler() {
+        this(Options.defaults());
+    }
+
+    /**
+     * Returns the number of timers that have been scheduled, and have not yet expired or been removed after cancellation.
+     */
+    public int pendingTimers() {
+        return pendingTimers.get();
+    }
+
+    // Scheduling
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(new WheelTask<>(Executors.callable(Objects.requireNonNull(command)), deadline(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return schedule(new WheelTask<>(Objects.requireNonNull(callable), deadline(delay, unit), 0));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The period must be positive");
+        }
+        return schedule(new WheelTask<>(Executors.callable(Objects.requireNonNull(command)), deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("The delay must be positive");
+        }
+        // Like in the ScheduledThreadPoolExecutor, a negative period stands for a fixed delay
+        return schedule(new WheelTask<>(Executors.callable(Objects.requireNonNull(command)), deadline(initialDelay, unit), -unit.toNanos(delay)));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    private <V> ScheduledFuture<V> schedule(WheelTask<V> task) {
+        if (state.get() != RUNNING) {
+            throw new RejectedExecutionException("Scheduler has been shut down");
+        }
+        enqueue(task);
+        // Re-checked, because the ticker thread may have stopped after a concurrent shutdown, before seeing the task
+        if (state.get() != RUNNING && removePendingInsert(task)) {
+            throw new RejectedExecutionException("Scheduler has been shut down");
+        }
+        return task;
+    }
+
+    private void enqueue(WheelTask<?> task) {
+        pendingTimers.incrementAndGet();
+        pendingInserts.add(task);
+        // A periodic task re-enqueued after shutdown must be cancelled, also if the ticker thread has already stopped
+        if (task.isPeriodic() && isShutdown() && removePendingInsert(task)) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Removes the given task from the pending inserts, returning false if the ticker thread has already taken it.
+     */
+    private boolean removePendingInsert(WheelTask<?> task) {
+        if (pendingInserts.remove(task)) {
+            pendingTimers.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private long now() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private long deadline(long delay, TimeUnit unit) {
+        // Capped, so that deadlines do not overflow
+        return now() + Math.min(Math.max(0, unit.toNanos(delay)), Long.MAX_VALUE / 2);
+    }
+
+    // Lifecycle
+
+    @Override
+    public void shutdown() {
+        if (state.compareAndSet(RUNNING, SHUTDOWN)) {
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    /**
+     * Stops the ticker thread, and returns the tasks that have not been run (without cancelling them).
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        int current;
+        do {
+            current = state.get();
+        } while (current < STOP && !state.compareAndSet(current, STOP));
+
+        if (Thread.currentThread() == ticker) {
+            // Called from a task running on the ticker thread, which owns the wheel
+            return drainTasks();
+        }
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return tasksNotRun;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return state.get() >= SHUTDOWN;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return state.get() == TERMINATED;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    // The ticker thread
+
+    private void runTicker() {
+        boolean periodicTasksCancelled = false;
+        try {
+            while (state.get() < STOP) {
+                if (state.get() == SHUTDOWN) {
+                    if (!periodicTasksCancelled) {
+                        cancelPeriodicTasks();
+                        periodicTasksCancelled = true;
+                    }
+                    if (pendingTimers.get() == 0) {
+                        break;
+                    }
+                }
+                waitForTick();
+                if (state.get() >= STOP) {
+                    break;
+                }
+                transferPendingInserts();
+                transferPendingRemovals();
+                expireTimers(wheel[(int) (tick & mask)]);
+                tick += 1;
+            }
+            if (state.get() >= STOP) {
+                tasksNotRun = drainTasks();
+            }
+        } finally {
+            state.set(TERMINATED);
+            terminated.countDown();
+        }
+    }
+
+    private void waitForTick() {
+        // Computed from the start time, so that late ticks do not make later ticks late as well
+        long tickDeadline = (tick + 1) * tickNanos;
+        long remainingNanos;
+        while ((remainingNanos = tickDeadline - now()) > 0 && state.get() < STOP) {
+            LockSupport.parkNanos(this, remainingNanos);
+            if (state.get() == SHUTDOWN && pendingTimers.get() == 0) {
+                return;
+            }
+        }
+    }
+
+    private void transferPendingInserts() {
+        WheelTask<?> task;
+        while ((task = pendingInserts.poll()) != null) {
+            if (task.isCancelled() || (task.isPeriodic() && isShutdown())) {
+                task.cancel(false);
+                pendingTimers.decrementAndGet();
+                continue;
+            }
+            long calculatedTick = task.deadline / tickNanos;
+            // A deadline in the past goes into the current bucket, to expire right away
+            long targetTick = Math.max(calculatedTick, tick);
+            task.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(task);
+        }
+    }
+
+    private void transferPendingRemovals() {
+        WheelTask<?> task;
+        while ((task = pendingRemovals.poll()) != null) {
+            // Only if the task is still in a bucket. If it has not been inserted yet, it is discarded on insertion.
+            if (task.bucket != null) {
+                task.bucket.remove(task);
+                pendingTimers.decrementAndGet();
+            }
+        }
+    }
+
+    private void expireTimers(Bucket bucket) {
+        WheelTask<?> task = bucket.head;
+        // A task run on this thread may have called shutdownNow, which drains the wheel, so next must not be used then
+        while (task != null && state.get() < STOP) {
+            WheelTask<?> next = task.next;
+            if (task.isCancelled()) {
+                bucket.remove(task);
+                pendingTimers.decrementAndGet();
+            } else if (task.remainingRounds <= 0) {
+                bucket.remove(task);
+                pendingTimers.decrementAndGet();
+                dispatch(task);
+            } else {
+                task.remainingRounds -= 1;
+            }
+            task = next;
+        }
+    }
+
+    private void dispatch(WheelTask<?> task) {
+        if (taskExecutor == null) {
+            task.run();
+        } else {
+            try {
+                taskExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void cancelPeriodicTasks() {
+        for (Bucket bucket : wheel) {
+            for (WheelTask<?> task = bucket.head; task != null; task = task.next) {
+                if (task.isPeriodic()) {
+                    task.cancel(false);
+                }
+            }
+        }
+    }
+
+    private List<Runnable> drainTasks() {
+        List<Runnable> tasks = new ArrayList<>();
+        for (Bucket bucket : wheel) {
+            WheelTask<?> task;
+            while ((task = bucket.head) != null) {
+                bucket.remove(task);
+                if (!task.isCancelled()) {
+                    tasks.add(task);
+                }
+            }
+        }
+        WheelTask<?> task;
+        while ((task = pendingInserts.poll()) != null) {
+            if (!task.isCancelled()) {
+                tasks.add(task);
+            }
+        }
+        pendingRemovals.clear();
+        pendingTimers.set(0);
+        return tasks;
+    }
+
+    /**
+     * Doubly linked list of the timers that hash to the same slot of the wheel. Only used by the ticker thread.
+     */
+    private static final class Bucket {
+
+        private WheelTask<?> head;
+        private WheelTask<?> tail;
+
+        void add(WheelTask<?> task) {
+            task.bucket = this;
+            task.prev = tail;
+            task.next = null;
+            if (tail == null) {
+                head = task;
+            } else {
+                tail.next = task;
+            }
+            tail = task;
+        }
+
+        void remove(WheelTask<?> task) {
+            if (task.prev == null) {
+                head = task.next;
+            } else {
+                task.prev.next = task.next;
+            }
+            if (task.next == null) {
+                tail = task.prev;
+            } else {
+                task.next.prev = task.prev;
+            }
+            task.prev = null;
+            task.next = null;
+            task.bucket = null;
+        }
+    }
+
+    private final class WheelTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+        // Nanoseconds since the start of the scheduler
+        private volatile long deadline;
+        // Positive for a fixed rate, negative for a fixed delay, and zero for a one-shot task
+        private final long period;
+
+        // Only used by the ticker thread
+        private long remainingRounds;
+        private WheelTask<?> prev;
+        private WheelTask<?> next;
+        private Bucket bucket;
+
+        WheelTask(Callable<V> callable, long deadline, long period) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - now(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && state.get() < STOP) {
+                pendingRemovals.add(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                if (isShutdown()) {
+                    cancel(false);
+                } else {
+                    deadline = (period > 0) ? deadline + period : now() - period;
+                    enqueue(this);
+                }
+            }
+        }
+    }
+}
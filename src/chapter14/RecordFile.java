@@ -0,0 +1,861 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter14;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only file format for (many) small records, as a compact and fast alternative to Java serialization.
+ * <p>
+ * The file starts with a small file header, followed by any number of blocks. Each block has a fixed-size block header
+ * (containing the record count, the raw and stored payload lengths and a CRC32 checksum of the stored payload), followed
+ * by the payload. The raw payload starts with the block's string dictionary, followed by a sequence of length-prefixed
+ * frames, one frame per record. Optionally the payload is compressed with the JDK Deflater, which is an LZ77-based
+ * compression algorithm.
+ * <p>
+ * Codecs can choose to write strings as "shared strings". Each distinct shared string is written only once per block,
+ * in the block's dictionary, and frames only contain its (small) dictionary id. This pays off for fields with a small
+ * vocabulary that repeats endlessly. When reading, each dictionary entry is decoded at most once per block, and all
+ * records in the block share that String instance.
+ * <p>
+ * Readers memory-map one block at a time, and decode the records of that block lazily. Given that blocks are
+ * independent of each other, readers can start at any block, and can process blocks in parallel. Instead of decoding
+ * records, readers can also scan over flyweight views that read fields directly from the block payload.
+ *
+ * @author Chris de Vreeze
+ */
+public class RecordFile {
+
+    private static final int FILE_MAGIC = 0x51524543; // "QREC"
+    private static final int FILE_VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final int BLOCK_MAGIC = 0x424c4b31; // "BLK1"
+    private static final int BLOCK_HEADER_SIZE = 24;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    private RecordFile() {
+    }
+
+    // Codec API
+
+    /**
+     * Encoder and decoder of records of type T. Each record is encoded as one frame.
+     */
+    public interface Codec<T> {
+
+        void encode(T value, RecordOutput out);
+
+        T decode(RecordInput in);
+    }
+
+    /**
+     * Growable byte buffer to which records are encoded.
+     */
+    public static final class RecordOutput {
+
+        private byte[] bytes;
+        private int size;
+        private final DictionaryBuilder dictionary;
+
+        RecordOutput(int initialCapacity, DictionaryBuilder dictionary) {
+            this.bytes = new byte[initialCapacity];
+            this.dictionary = dictionary;
+        }
+
+        RecordOutput(int initialCapacity) {
+            this(initialCapacity, null);
+        }
+
+        public void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        public void writeInt(int value) {
+            ensureCapacity(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        public void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        /**
+         * Writes a non-negative int in 1 to 5 bytes, 7 bits at a time.
+         */
+        public void writeVarInt(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative var-int not allowed: " + value);
+            }
+            ensureCapacity(5);
+            int v = value;
+            while ((v & ~0x7f) != 0) {
+                bytes[size++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        public void writeBytes(byte[] src, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(src, offset, bytes, size, length);
+            size += length;
+        }
+
+        /**
+         * Writes a string as var-int length followed by the UTF-8 bytes.
+         */
+        public void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf8.length);
+            writeBytes(utf8, 0, utf8.length);
+        }
+
+        /**
+         * Writes a string as var-int id into the dictionary of the current block.
+         */
+        public void writeSharedString(String value) {
+            if (dictionary == null) {
+                throw new IllegalStateException("No string dictionary available");
+            }
+            writeVarInt(dictionary.idOf(value));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Read-only cursor over one frame in the (memory-mapped or decompressed) block payload, from which one record is
+     * decoded. The cursor reads directly from the payload, so nothing is copied or allocated unless strings are decoded.
+     * <p>
+     * The same instance is moved from frame to frame within a block, so codecs and views must not hold on to it
+     * after the record has been processed.
+     */
+    public static final class RecordInput {
+
+        private final ByteBuffer payload;
+        private final Dictionary dictionary;
+        private int start;
+        private int position;
+
+        RecordInput(ByteBuffer payload, Dictionary dictionary) {
+            this.payload = payload;
+            this.dictionary = dictionary;
+        }
+
+        void moveTo(int frameStart) {
+            this.start = frameStart;
+            this.position = frameStart;
+        }
+
+        /**
+         * Moves the cursor back to the start of the current frame.
+         */
+        public void rewind() {
+            position = start;
+        }
+
+        public int readByte() {
+            return payload.get(position++) & 0xff;
+        }
+
+        public int readInt() {
+            int result = payload.getInt(position);
+            position += 4;
+            return result;
+        }
+
+        public long readLong() {
+            long result = payload.getLong(position);
+            position += 8;
+            return result;
+        }
+
+        public int readVarInt() {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = payload.get(position++);
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Malformed var-int");
+        }
+
+        public String readString() {
+            int length = readVarInt();
+            String result = decodeUtf8(payload, position, length);
+            position += length;
+            return result;
+        }
+
+        public void skipString() {
+            int length = readVarInt();
+            position += length;
+        }
+
+        /**
+         * Compares the raw UTF-8 bytes of the string at the cursor with the given key, without decoding the string.
+         */
+        public boolean stringEquals(EncodedString key) {
+            int length = readVarInt();
+            boolean result = bytesEqual(payload, position, length, key);
+            position += length;
+            return result;
+        }
+
+        public String readSharedString() {
+            return dictionary.get(readVarInt());
+        }
+
+        public void skipSharedString() {
+            readVarInt();
+        }
+
+        /**
+         * Checks whether the shared string at the cursor equals the given key. The key is looked up in the block
+         * dictionary by raw byte comparison only once per block, after which this is an int comparison.
+         */
+        public boolean sharedStringEquals(EncodedString key) {
+            return dictionary.matches(readVarInt(), key);
+        }
+    }
+
+    /**
+     * Pre-encoded UTF-8 key, for comparing strings against serialized data without decoding that data.
+     */
+    public static final class EncodedString {
+
+        private final String value;
+        private final byte[] utf8;
+
+        private EncodedString(String value) {
+            this.value = value;
+            this.utf8 = value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public static EncodedString of(String value) {
+            return new EncodedString(Objects.requireNonNull(value));
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    // String dictionaries
+
+    /**
+     * Per-block string dictionary used while writing, assigning ids in order of first occurrence.
+     */
+    static final class DictionaryBuilder {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final RecordOutput entries = new RecordOutput(1024);
+
+        int idOf(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = ids.size();
+                ids.put(value, id);
+                entries.writeString(value);
+            }
+            return id;
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        void writeTo(RecordOutput out) {
+            out.writeVarInt(ids.size());
+            out.writeBytes(entries.array(), 0, entries.size());
+        }
+
+        int encodedSize() {
+            return 5 + entries.size();
+        }
+
+        void clear() {
+            ids.clear();
+            entries.reset();
+        }
+    }
+
+    /**
+     * Per-block string dictionary used while reading. Entries are decoded lazily, at most once.
+     */
+    static final class Dictionary {
+
+        private final ByteBuffer payload;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final String[] values;
+        private EncodedString lastKey;
+        private int lastKeyId = -1;
+
+        private Dictionary(ByteBuffer payload, int[] offsets, int[] lengths) {
+            this.payload = payload;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.values = new String[offsets.length];
+        }
+
+        String get(int id) {
+            String value = values[id];
+            if (value == null) {
+                value = decodeUtf8(payload, offsets[id], lengths[id]);
+                values[id] = value;
+            }
+            return value;
+        }
+
+        int size() {
+            return offsets.length;
+        }
+
+        boolean matches(int id, EncodedString key) {
+            if (key != lastKey) {
+                lastKeyId = indexOf(key);
+                lastKey = key;
+            }
+            return id == lastKeyId;
+        }
+
+        private int indexOf(EncodedString key) {
+            for (int i = 0; i < offsets.length; i++) {
+                if (bytesEqual(payload, offsets[i], lengths[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Reads the dictionary at the current position of the payload, leaving the position at the first frame.
+         */
+        static Dictionary read(ByteBuffer payload) {
+            int size = readVarInt(payload);
+            int[] offsets = new int[size];
+            int[] lengths = new int[size];
+            for (int i = 0; i < size; i++) {
+                lengths[i] = readVarInt(payload);
+                offsets[i] = payload.position();
+                payload.position(offsets[i] + lengths[i]);
+            }
+            return new Dictionary(payload, offsets, lengths);
+        }
+    }
+
+    // Writer
+
+    public record WriterOptions(int targetBlockSize, boolean compress) {
+
+        public WriterOptions {
+            if (targetBlockSize <= 0) {
+                throw new IllegalArgumentException("Target block size must be positive");
+            }
+        }
+
+        public static WriterOptions defaults() {
+            return new WriterOptions(256 * 1024, true);
+        }
+    }
+
+    /**
+     * Appending writer. Records are buffered in memory until the block is full, after which the block is appended
+     * to the file. Closing the writer flushes the last (partial) block.
+     */
+    public static final class Writer<T> implements Closeable {
+
+        private final FileChannel channel;
+        private final Codec<T> codec;
+        private final WriterOptions options;
+        private final DictionaryBuilder dictionary = new DictionaryBuilder();
+        private final RecordOutput frame = new RecordOutput(256, dictionary);
+        private final RecordOutput frames;
+        private final RecordOutput block;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] compressed = new byte[0];
+        private int blockRecordCount = 0;
+
+        private Writer(FileChannel channel, Codec<T> codec, WriterOptions options) {
+            this.channel = channel;
+            this.codec = codec;
+            this.options = options;
+            this.frames = new RecordOutput(options.targetBlockSize() + 1024);
+            this.block = new RecordOutput(options.targetBlockSize() + 1024);
+        }
+
+        public void append(T value) {
+            frame.reset();
+            codec.encode(value, frame);
+            frames.writeVarInt(frame.size());
+            frames.writeBytes(frame.array(), 0, frame.size());
+            blockRecordCount += 1;
+
+            if (frames.size() + dictionary.encodedSize() >= options.targetBlockSize()) {
+                flushBlock();
+            }
+        }
+
+        public void appendAll(Stream<T> values) {
+            values.forEachOrdered(this::append);
+        }
+
+        public void flushBlock() {
+            if (blockRecordCount == 0) {
+                return;
+            }
+            block.reset();
+            dictionary.writeTo(block);
+            block.writeBytes(frames.array(), 0, frames.size());
+
+            int rawLength = block.size();
+            byte[] stored = block.array();
+            int storedLength = rawLength;
+            int flags = 0;
+
+            if (options.compress()) {
+                int compressedLength = compress(block.array(), rawLength);
+                if (compressedLength < rawLength) {
+                    stored = compressed;
+                    storedLength = compressedLength;
+                    flags |= FLAG_COMPRESSED;
+                }
+            }
+
+            var crc = new CRC32();
+            crc.update(stored, 0, storedLength);
+
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            header.putInt(BLOCK_MAGIC)
+                    .putInt(flags)
+                    .putInt(blockRecordCount)
+                    .putInt(rawLength)
+                    .putInt(storedLength)
+                    .putInt((int) crc.getValue())
+                    .flip();
+            writeFully(channel, header, ByteBuffer.wrap(stored, 0, storedLength));
+
+            frames.reset();
+            dictionary.clear();
+            blockRecordCount = 0;
+        }
+
+        @Override
+        public void close() {
+            try (channel) {
+                flushBlock();
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private int compress(byte[] input, int length) {
+            if (compressed.length < length) {
+                compressed = new byte[length];
+            }
+            deflater.reset();
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < compressed.length) {
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            // Not finished means that compression does not pay off for this block
+            return deflater.finished() ? compressedLength : Integer.MAX_VALUE;
+        }
+    }
+
+    public static <T> Writer<T> newWriter(Path path, Codec<T> codec, WriterOptions options) {
+        try {
+            FileChannel channel = FileChannel.open(
+                    path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            try {
+                if (channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+                    writeFully(channel, header);
+                } else {
+                    checkFileHeader(channel);
+                    // Appending after the last complete block, thus overwriting any torn block left by a crash
+                    channel.position(scanBlocks(channel).endOffset());
+                    channel.truncate(channel.position());
+                }
+            } catch (RuntimeException | IOException e) {
+                channel.close();
+                throw e;
+            }
+            return new Writer<>(channel, codec, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reader
+
+    /**
+     * Location and size of a block in the file.
+     */
+    public record BlockInfo(long offset, int flags, int recordCount, int rawLength, int storedLength, int checksum) {
+
+        public boolean isCompressed() {
+            return (flags & FLAG_COMPRESSED) != 0;
+        }
+
+        long payloadOffset() {
+            return offset + BLOCK_HEADER_SIZE;
+        }
+
+        long endOffset() {
+            return payloadOffset() + storedLength;
+        }
+    }
+
+    private record BlockIndex(List<BlockInfo> blocks, long endOffset) {
+    }
+
+    /**
+     * Reader of a record file. The block index is built once when opening the reader. The reader is thread-safe,
+     * so blocks can be decoded in parallel.
+     */
+    public static final class Reader<T> implements Closeable {
+
+        private final FileChannel channel;
+        private final Codec<T> codec;
+        private final List<BlockInfo> blocks;
+
+        private Reader(FileChannel channel, Codec<T> codec, List<BlockInfo> blocks) {
+            this.channel = channel;
+            this.codec = codec;
+            this.blocks = List.copyOf(blocks);
+        }
+
+        public List<BlockInfo> blocks() {
+            return blocks;
+        }
+
+        public int blockCount() {
+            return blocks.size();
+        }
+
+        public long recordCount() {
+            return blocks.stream().mapToLong(BlockInfo::recordCount).sum();
+        }
+
+        /**
+         * Returns a lazy stream of the records in the given block. The block is mapped and checked when the stream
+         * is consumed, not earlier.
+         */
+        public Stream<T> blockRecords(int blockIndex) {
+            return blockFrames(blockIndex, in -> () -> codec.decode(in));
+        }
+
+        /**
+         * Returns a lazy sequential stream of all records, starting at the given block.
+         */
+        public Stream<T> records(int fromBlockIndex) {
+            Objects.checkIndex(fromBlockIndex, blocks.size() + 1);
+            return IntStream.range(fromBlockIndex, blocks.size()).boxed().flatMap(this::blockRecords);
+        }
+
+        public Stream<T> records() {
+            return records(0);
+        }
+
+        /**
+         * Returns a parallel stream of all records, where blocks are the unit of parallelism.
+         */
+        public Stream<T> parallelRecords() {
+            return IntStream.range(0, blocks.size()).parallel().boxed().flatMap(this::blockRecords);
+        }
+
+        /**
+         * Returns a lazy stream of flyweight views over the records in the given block. The view factory is called
+         * only once for the block, and the same view instance is returned for each record, after moving the
+         * underlying {@link RecordInput} to the next frame. So views are only valid until the next element is
+         * requested, and must not be collected. This makes filtering scans almost allocation-free.
+         */
+        public <V> Stream<V> blockViews(int blockIndex, Function<RecordInput, V> viewFactory) {
+            return blockFrames(blockIndex, in -> {
+                V view = viewFactory.apply(in);
+                return () -> view;
+            });
+        }
+
+        public <V> Stream<V> views(Function<RecordInput, V> viewFactory) {
+            return IntStream.range(0, blocks.size()).boxed().flatMap(i -> blockViews(i, viewFactory));
+        }
+
+        public <V> Stream<V> parallelViews(Function<RecordInput, V> viewFactory) {
+            return IntStream.range(0, blocks.size()).parallel().boxed().flatMap(i -> blockViews(i, viewFactory));
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private <E> Stream<E> blockFrames(int blockIndex, Function<RecordInput, Supplier<E>> elementFactory) {
+            BlockInfo block = blocks.get(blockIndex);
+            return StreamSupport.stream(
+                    () -> new FrameSpliterator<>(loadPayload(block), block.recordCount(), elementFactory),
+                    Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL,
+                    false);
+        }
+
+        private ByteBuffer loadPayload(BlockInfo block) {
+            try {
+                ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, block.payloadOffset(), block.storedLength());
+
+                var crc = new CRC32();
+                crc.update(stored.duplicate());
+                if ((int) crc.getValue() != block.checksum()) {
+                    throw new IllegalStateException("Checksum mismatch in block at offset " + block.offset());
+                }
+                return block.isCompressed() ? decompress(stored, block.rawLength()) : stored;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static ByteBuffer decompress(ByteBuffer stored, int rawLength) {
+            var inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                ByteBuffer raw = ByteBuffer.allocate(rawLength);
+                while (raw.hasRemaining() && !inflater.finished()) {
+                    if (inflater.inflate(raw) == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                }
+                if (raw.hasRemaining()) {
+                    throw new IllegalStateException("Compressed block shorter than expected");
+                }
+                return raw.flip();
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt compressed block", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    public static <T> Reader<T> openReader(Path path, Codec<T> codec) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                checkFileHeader(channel);
+                return new Reader<>(channel, codec, scanBlocks(channel).blocks());
+            } catch (RuntimeException | IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Frame decoding
+
+    /**
+     * Spliterator over the frames of one block. For each frame, the shared RecordInput is moved to that frame before
+     * the element supplier (created once for the block) is called.
+     */
+    private static final class FrameSpliterator<E> extends Spliterators.AbstractSpliterator<E> {
+
+        private final ByteBuffer payload;
+        private final RecordInput input;
+        private final Supplier<E> elementSupplier;
+        private int remaining;
+
+        FrameSpliterator(ByteBuffer payload, int recordCount, Function<RecordInput, Supplier<E>> elementFactory) {
+            super(recordCount, Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL);
+            this.payload = payload;
+            this.input = new RecordInput(payload, Dictionary.read(payload));
+            this.elementSupplier = elementFactory.apply(input);
+            this.remaining = recordCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (remaining == 0) {
+                return false;
+            }
+            int length = readVarInt(payload);
+            input.moveTo(payload.position());
+            payload.position(payload.position() + length);
+            remaining -= 1;
+            action.accept(elementSupplier.get());
+            return true;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+    }
+
+    // Helpers
+
+    private static void checkFileHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, 0, FILE_HEADER_SIZE);
+        if (header == null || header.getInt() != FILE_MAGIC) {
+            throw new IllegalStateException("Not a record file");
+        }
+        int version = header.getInt();
+        if (version != FILE_VERSION) {
+            throw new IllegalStateException("Unsupported record file version: " + version);
+        }
+    }
+
+    /**
+     * Scans all block headers, stopping at the first incomplete block (which is the result of an interrupted append).
+     */
+    private static BlockIndex scanBlocks(FileChannel channel) throws IOException {
+        List<BlockInfo> blocks = new ArrayList<>();
+        long fileSize = channel.size();
+        long offset = FILE_HEADER_SIZE;
+
+        while (offset + BLOCK_HEADER_SIZE <= fileSize) {
+            ByteBuffer header = readFully(channel, offset, BLOCK_HEADER_SIZE);
+            if (header == null || header.getInt() != BLOCK_MAGIC) {
+                break;
+            }
+            var block = new BlockInfo(
+                    offset, header.getInt(), header.getInt(), header.getInt(), header.getInt(), header.getInt());
+            if (block.endOffset() > fileSize) {
+                break;
+            }
+            blocks.add(block);
+            offset = block.endOffset();
+        }
+        return new BlockIndex(blocks, offset);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer... buffers) {
+        try {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalStateException("Malformed var-int");
+    }
+
+    static boolean bytesEqual(ByteBuffer buffer, int offset, int length, EncodedString key) {
+        byte[] expected = key.utf8;
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String decodeUtf8(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
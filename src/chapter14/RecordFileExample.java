@@ -0,0 +1,235 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter14;
+
+import chapter14.SerializationExample.Quote;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Example writing many Quote records to a {@link RecordFile}, and scanning them back, both sequentially and in parallel.
+ * Scans are done both by decoding Quote records and by filtering on flyweight views over the serialized data.
+ * <p>
+ * The program takes an optional number of records (default 1 million) and an optional file path as program arguments.
+ *
+ * @author Chris de Vreeze
+ */
+public class RecordFileExample {
+
+    /**
+     * Codec for Quote records. If dictionary encoding is used, the "attributedTo" and "subjects" fields, which have
+     * a small vocabulary, are written as shared strings.
+     */
+    public static final class QuoteCodec implements RecordFile.Codec<Quote> {
+
+        private final boolean useDictionary;
+
+        public QuoteCodec(boolean useDictionary) {
+            this.useDictionary = useDictionary;
+        }
+
+        public QuoteCodec() {
+            this(true);
+        }
+
+        @Override
+        public void encode(Quote value, RecordFile.RecordOutput out) {
+            writeVocabularyString(value.attributedTo(), out);
+            out.writeString(value.text());
+            out.writeVarInt(value.subjects().size());
+            value.subjects().forEach(subject -> writeVocabularyString(subject, out));
+        }
+
+        @Override
+        public Quote decode(RecordFile.RecordInput in) {
+            String attributedTo = readVocabularyString(in);
+            String text = in.readString();
+            int subjectCount = in.readVarInt();
+            List<String> subjects = new ArrayList<>(subjectCount);
+            for (int i = 0; i < subjectCount; i++) {
+                subjects.add(readVocabularyString(in));
+            }
+            return new Quote(attributedTo, text, List.copyOf(subjects));
+        }
+
+        private void writeVocabularyString(String value, RecordFile.RecordOutput out) {
+            if (useDictionary) {
+                out.writeSharedString(value);
+            } else {
+                out.writeString(value);
+            }
+        }
+
+        private String readVocabularyString(RecordFile.RecordInput in) {
+            return useDictionary ? in.readSharedString() : in.readString();
+        }
+    }
+
+    /**
+     * Flyweight view over a Quote serialized by a dictionary-encoding QuoteCodec. Fields are read directly from the
+     * serialized frame, and strings are only decoded when they are accessed.
+     */
+    public static final class QuoteView {
+
+        private final RecordFile.RecordInput in;
+
+        public QuoteView(RecordFile.RecordInput in) {
+            this.in = in;
+        }
+
+        public boolean attributedToEquals(RecordFile.EncodedString key) {
+            in.rewind();
+            return in.sharedStringEquals(key);
+        }
+
+        public String attributedTo() {
+            in.rewind();
+            return in.readSharedString();
+        }
+
+        public String text() {
+            in.rewind();
+            in.skipSharedString();
+            return in.readString();
+        }
+
+        public List<String> subjects() {
+            in.rewind();
+            in.skipSharedString();
+            in.skipString();
+            int subjectCount = in.readVarInt();
+            List<String> subjects = new ArrayList<>(subjectCount);
+            for (int i = 0; i < subjectCount; i++) {
+                subjects.add(in.readSharedString());
+            }
+            return List.copyOf(subjects);
+        }
+
+        public Quote toQuote() {
+            return new Quote(attributedTo(), text(), subjects());
+        }
+    }
+
+    private static final List<Quote> sampleQuotes = List.of(
+            new Quote(
+                    "Wim Hof",
+                    "If you can learn how to use your mind, anything is possible.",
+                    List.of("Willpower", "Strength", "Health")),
+            new Quote(
+                    "Albert Einstein",
+                    "Life is like riding a bicycle. To keep your balance you must keep moving.",
+                    List.of("Life", "Balance")),
+            new Quote(
+                    "Marcus Aurelius",
+                    "The happiness of your life depends upon the quality of your thoughts.",
+                    List.of("Happiness", "Life", "Mind"))
+    );
+
+    public static Quote quote(int index) {
+        Quote q = sampleQuotes.get(index % sampleQuotes.size());
+        return new Quote(q.attributedTo(), q.text() + " (" + index + ")", q.subjects());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numberOfRecords = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
+        Path path = (args.length >= 2) ? Path.of(args[1]) : Files.createTempFile("quotes", ".rec");
+        Files.deleteIfExists(path);
+
+        var uncompressedOptions = new RecordFile.WriterOptions(RecordFile.WriterOptions.defaults().targetBlockSize(), false);
+        Path plainPath = Files.createTempFile("quotes-plain", ".rec");
+        try (var writer = RecordFile.newWriter(plainPath, new QuoteCodec(false), uncompressedOptions)) {
+            writer.appendAll(IntStream.range(0, numberOfRecords).mapToObj(RecordFileExample::quote));
+        }
+        Path dictionaryPath = Files.createTempFile("quotes-dictionary", ".rec");
+        try (var writer = RecordFile.newWriter(dictionaryPath, new QuoteCodec(true), uncompressedOptions)) {
+            writer.appendAll(IntStream.range(0, numberOfRecords).mapToObj(RecordFileExample::quote));
+        }
+        System.out.printf("Uncompressed size without dictionary: %d bytes%n", Files.size(plainPath));
+        System.out.printf("Uncompressed size with dictionary: %d bytes%n", Files.size(dictionaryPath));
+        Files.delete(plainPath);
+        Files.delete(dictionaryPath);
+
+        var codec = new QuoteCodec();
+
+        long start = System.nanoTime();
+        try (var writer = RecordFile.newWriter(path, codec, RecordFile.WriterOptions.defaults())) {
+            writer.appendAll(IntStream.range(0, numberOfRecords).mapToObj(RecordFileExample::quote));
+        }
+        System.out.printf("Wrote %d records (%d bytes) in %d ms%n",
+                numberOfRecords, Files.size(path), (System.nanoTime() - start) / 1_000_000);
+
+        try (var reader = RecordFile.openReader(path, codec)) {
+            System.out.printf("Number of blocks: %d%n", reader.blockCount());
+
+            start = System.nanoTime();
+            long count;
+            try (Stream<Quote> quotes = reader.records()) {
+                count = quotes.filter(q -> q.attributedTo().equals("Wim Hof")).count();
+            }
+            System.out.printf("Sequential scan: %d Wim Hof quotes in %d ms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            try (Stream<Quote> quotes = reader.parallelRecords()) {
+                count = quotes.filter(q -> q.attributedTo().equals("Wim Hof")).count();
+            }
+            System.out.printf("Parallel scan: %d Wim Hof quotes in %d ms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+            var wimHof = RecordFile.EncodedString.of("Wim Hof");
+
+            start = System.nanoTime();
+            try (Stream<QuoteView> quoteViews = reader.views(QuoteView::new)) {
+                count = quoteViews.filter(v -> v.attributedToEquals(wimHof)).count();
+            }
+            System.out.printf("Sequential view scan: %d Wim Hof quotes in %d ms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            try (Stream<QuoteView> quoteViews = reader.parallelViews(QuoteView::new)) {
+                count = quoteViews.filter(v -> v.attributedToEquals(wimHof)).count();
+            }
+            System.out.printf("Parallel view scan: %d Wim Hof quotes in %d ms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+            // The checks below only need the first few records, of which there may be fewer than 10
+            int n = Math.min(10, numberOfRecords);
+
+            // Views must be turned into Quote records before they can be collected
+            List<Quote> viewedQuotes = reader.views(QuoteView::new).limit(n).map(QuoteView::toQuote).toList();
+
+            if (reader.blockCount() > 0) {
+                int lastBlock = reader.blockCount() - 1;
+                Quote firstOfLastBlock = reader.records(lastBlock).findFirst().orElseThrow();
+                System.out.printf("First quote of last block: %s%n", firstOfLastBlock);
+            }
+
+            List<Quote> firstQuotes = reader.records().limit(n).toList();
+            // Thanks to the string dictionary, equal author names within a block are the same String instance
+            if (n > 3 && firstQuotes.get(0).attributedTo() != firstQuotes.get(3).attributedTo()) {
+                throw new IllegalStateException("Expected shared String instances for equal authors");
+            }
+
+            if (!firstQuotes.equals(IntStream.range(0, n).mapToObj(RecordFileExample::quote).toList())
+                    || !viewedQuotes.equals(firstQuotes)) {
+                throw new IllegalStateException("Read records differ from written records");
+            }
+        }
+    }
+}
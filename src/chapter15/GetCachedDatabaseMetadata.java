@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter15;
+
+import chapter15.GetDatabaseMetadata.MetaData;
+import chapter15.MetaDataService.Refresh;
+import jdbc.ConnectionPool;
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static jdbc.JdbcSupport.toSupplier;
+
+/**
+ * Gets database metadata for the "Zoo" HSQL database through a {@link MetaDataService}, comparing a cold load, a
+ * cached lookup and incremental refreshes after DDL changes with the uncached {@link GetDatabaseMetadata}.
+ *
+ * @author Chris de Vreeze
+ */
+public class GetCachedDatabaseMetadata {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int NUMBER_OF_CONNECTIONS = 4;
+
+    private static void runDdl(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void printRefresh(String description, Refresh refresh) {
+        System.out.printf(
+                "%s: refreshed tables %s, removed tables %s, number of tables %d%n",
+                description,
+                refresh.refreshedTables(),
+                refresh.removedTables(),
+                refresh.metaData().tables().size());
+    }
+
+    public static void main(String[] args) throws SQLException {
+        ConnectionSupplier driverManager = () -> DriverManager.getConnection(JDBC_URL);
+
+        try (Connection conn = driverManager.get();
+             var pool = new ConnectionPool(driverManager, ConnectionPool.Config.withMaxSize(NUMBER_OF_CONNECTIONS))) {
+            long start = System.nanoTime();
+            MetaData uncached = GetDatabaseMetadata.getDatabaseMetadata(toSupplier(pool));
+            System.out.printf("Uncached: %d tables in %d ms%n", uncached.tables().size(), (System.nanoTime() - start) / 1_000_000);
+
+            var service = new MetaDataService(pool, NUMBER_OF_CONNECTIONS, MetaDataService.ChangeDetector.columnSignatures());
+
+            start = System.nanoTime();
+            MetaData metaData = service.metaData();
+            System.out.printf("Cold load: %d tables in %d ms%n", metaData.tables().size(), (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            metaData = service.metaData();
+            System.out.printf("Cached: %d tables in %.3f ms%n", metaData.tables().size(), (System.nanoTime() - start) / 1_000_000.0);
+
+            start = System.nanoTime();
+            printRefresh("Refresh without changes", service.refresh());
+            System.out.printf("\tin %d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            runDdl(conn, "CREATE TABLE keepers (id INTEGER PRIMARY KEY, name VARCHAR(255))");
+            try {
+                printRefresh("Refresh after creating table", service.refresh());
+
+                runDdl(conn, "ALTER TABLE keepers ADD COLUMN exhibit_id INTEGER");
+                Refresh refresh = service.refresh();
+                printRefresh("Refresh after adding column", refresh);
+                refresh.metaData().tables().stream()
+                        .filter(t -> t.tableName().equals("KEEPERS"))
+                        .flatMap(t -> t.columns().stream())
+                        .forEach(c -> System.out.printf("\tColumn: %s%n", c));
+            } finally {
+                runDdl(conn, "DROP TABLE keepers");
+            }
+            printRefresh("Refresh after dropping table", service.refresh());
+
+            List<String> tableNames = service.metaData().tables().stream()
+                    .map(GetDatabaseMetadata.TableMetaData::tableName)
+                    .filter(name -> List.of("EXHIBITS", "NAMES").contains(name))
+                    .toList();
+            System.out.printf("Zoo tables: %s%n", tableNames);
+        }
+    }
+}
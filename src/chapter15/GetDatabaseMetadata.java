@@ -16,13 +16,16 @@
 
 package chapter15;
 
+import jdbc.RecordRowMapper;
+import jdbc.RecordRowMapper.Column;
+
 import java.sql.*;
 import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static jdbc.JdbcSupport.toFunction;
+import static jdbc.JdbcSupport.stream;
 import static jdbc.JdbcSupport.toSupplier;
 
 /**
@@ -33,11 +36,11 @@ import static jdbc.JdbcSupport.toSupplier;
 public class GetDatabaseMetadata {
 
     public record ColumnMetaData(
-            String tableCategory,
-            String tableSchema,
+            @Column("TABLE_CAT") String tableCategory,
+            @Column("TABLE_SCHEM") String tableSchema,
             String tableName,
             String columnName,
-            String columnType,
+            @Column("DATA_TYPE") String columnType,
             String typeName,
             String isNullable) {
     }
@@ -64,18 +67,10 @@ public class GetDatabaseMetadata {
         try (Connection conn = connSupplier.get()) {
             DatabaseMetaData metaData = conn.getMetaData();
 
-            try (ResultSet columnRs = metaData.getColumns(null, null, null, null)) {
-                List<ColumnMetaData> columns = Stream.generate(toSupplier(columnRs::next)).takeWhile(b -> b)
-                        .map(
-                                toFunction(
-                                        ignored -> new ColumnMetaData(
-                                                columnRs.getString("TABLE_CAT"),
-                                                columnRs.getString("TABLE_SCHEM"),
-                                                columnRs.getString("TABLE_NAME"),
-                                                columnRs.getString("COLUMN_NAME"),
-                                                columnRs.getString("DATA_TYPE"),
-                                                columnRs.getString("TYPE_NAME"),
-                                                columnRs.getString("IS_NULLABLE")))).toList();
+            try (Stream<ColumnMetaData> columnStream = stream(
+                    metaData.getColumns(null, null, null, null),
+                    RecordRowMapper.forRecord(ColumnMetaData.class))) {
+                List<ColumnMetaData> columns = columnStream.toList();
 
                 List<TableMetaData> tables =
                         columns.stream()
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chapter15;
+
+import chapter15.GetDatabaseMetadata.ColumnMetaData;
+import chapter15.GetDatabaseMetadata.MetaData;
+import chapter15.GetDatabaseMetadata.TableMetaData;
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.JdbcSupport.UncheckedSQLException;
+import jdbc.RecordRowMapper;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.stream;
+import static jdbc.JdbcSupport.toSupplier;
+
+/**
+ * Service caching the database metadata of {@link GetDatabaseMetadata}. The first call does a cold load, fetching the
+ * column metadata per schema in parallel, each schema over its own (typically pooled) connection. After that, the
+ * cached metadata is returned until {@link #refresh()} is called, which only re-fetches the tables that have been
+ * added or changed (in parallel per table), and drops the tables that no longer exist.
+ * <p>
+ * Changed tables are found by a {@link ChangeDetector}, which cheaply computes a version per table. Tables can also be
+ * marked as changed explicitly, e.g. after running DDL, through {@link #invalidate(TableId)}.
+ *
+ * @author Chris de Vreeze
+ */
+public final class MetaDataService {
+
+    /**
+     * Table identity. The schema is null for databases without schemas.
+     */
+    public record TableId(String schema, String tableName) {
+
+        public TableId {
+            Objects.requireNonNull(tableName);
+        }
+    }
+
+    /**
+     * Computes a version per table, such that the version changes whenever the table definition changes.
+     */
+    @FunctionalInterface
+    public interface ChangeDetector {
+
+        Map<TableId, Object> tableVersions(Connection conn) throws SQLException;
+
+        /**
+         * Only detects added and dropped tables, so changed tables must be invalidated explicitly.
+         */
+        static ChangeDetector tableListOnly() {
+            return conn -> {
+                Map<TableId, Object> result = new HashMap<>();
+                try (ResultSet rs = conn.getMetaData().getTables(null, null, null, null)) {
+                    while (rs.next()) {
+                        result.put(new TableId(rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")), rs.getString("TABLE_TYPE"));
+                    }
+                }
+                return result;
+            };
+        }
+
+        /**
+         * Uses the column names, types and nullability in the standard INFORMATION_SCHEMA.COLUMNS view as table
+         * version. This query reads far fewer columns than {@link DatabaseMetaData#getColumns}.
+         */
+        static ChangeDetector columnSignatures() {
+            String sql = """
+                    SELECT table_schema, table_name, column_name, data_type, is_nullable
+                    FROM INFORMATION_SCHEMA.COLUMNS
+                    ORDER BY table_schema, table_name, ordinal_position""";
+            return conn -> {
+                Map<TableId, List<String>> result = new HashMap<>();
+                try (PreparedStatement ps = conn.prepareStatement(sql);
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.computeIfAbsent(new TableId(rs.getString(1), rs.getString(2)), t -> new ArrayList<>())
+                                .add(rs.getString(3) + ' ' + rs.getString(4) + ' ' + rs.getString(5));
+                    }
+                }
+                return Map.copyOf(result);
+            };
+        }
+    }
+
+    public record Refresh(MetaData metaData, Set<TableId> refreshedTables, Set<TableId> removedTables) {
+    }
+
+    @FunctionalInterface
+    private interface JdbcBiFunction<T, R> {
+
+        R apply(Connection conn, T value) throws SQLException;
+    }
+
+    private record Snapshot(MetaData metaData, Map<TableId, TableMetaData> tables, Map<TableId, Object> versions) {
+    }
+
+    private final ConnectionSupplier connectionSupplier;
+    private final int parallelism;
+    private final ChangeDetector changeDetector;
+    private final Set<TableId> invalidatedTables = ConcurrentHashMap.newKeySet();
+
+    private volatile Snapshot snapshot;
+
+    public MetaDataService(ConnectionSupplier connectionSupplier, int parallelism, ChangeDetector changeDetector) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.connectionSupplier = Objects.requireNonNull(connectionSupplier);
+        this.parallelism = parallelism;
+        this.changeDetector = Objects.requireNonNull(changeDetector);
+    }
+
+    /**
+     * Returns the cached metadata, doing a cold load first if nothing has been cached yet.
+     */
+    public MetaData metaData() {
+        Snapshot currentSnapshot = snapshot;
+        if (currentSnapshot != null) {
+            return currentSnapshot.metaData();
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = toSupplier(this::coldLoad).get();
+            }
+            return snapshot.metaData();
+        }
+    }
+
+    /**
+     * Re-fetches the metadata of added, changed and invalidated tables, and drops the metadata of removed tables.
+     */
+    public synchronized Refresh refresh() {
+        return toSupplier(this::refreshInternal).get();
+    }
+
+    public void invalidate(TableId table) {
+        invalidatedTables.add(table);
+    }
+
+    private Snapshot coldLoad() throws SQLException {
+        MetaData connectionInfo;
+        List<String> schemas = new ArrayList<>();
+        Map<TableId, Object> versions;
+        try (Connection conn = connectionSupplier.get()) {
+            // Versions first, so that concurrent changes are detected by the next refresh
+            versions = changeDetector.tableVersions(conn);
+            DatabaseMetaData metaData = conn.getMetaData();
+            connectionInfo = new MetaData(
+                    metaData.getDriverName(),
+                    metaData.getDriverVersion(),
+                    metaData.getURL(),
+                    conn.toString(),
+                    List.of());
+            try (ResultSet rs = metaData.getSchemas()) {
+                while (rs.next()) {
+                    schemas.add(rs.getString("TABLE_SCHEM"));
+                }
+            }
+        }
+        invalidatedTables.clear();
+        if (schemas.isEmpty()) {
+            // No schemas, so fetch all columns at once
+            schemas.add(null);
+        }
+
+        List<List<ColumnMetaData>> columnsPerSchema = runInParallel(
+                schemas.stream().map(Collections::singletonList).toList(),
+                (Connection conn, List<String> schemaBatch) ->
+                        fetchColumnsByName(conn, schemaBatch.get(0), null));
+        Map<TableId, TableMetaData> tables = toTables(columnsPerSchema.stream().flatMap(List::stream));
+        return newSnapshot(connectionInfo, tables, versions);
+    }
+
+    private Refresh refreshInternal() throws SQLException {
+        if (snapshot == null) {
+            snapshot = coldLoad();
+            return new Refresh(snapshot.metaData(), snapshot.tables().keySet(), Set.of());
+        }
+        Snapshot previous = snapshot;
+
+        Map<TableId, Object> versions;
+        try (Connection conn = connectionSupplier.get()) {
+            versions = changeDetector.tableVersions(conn);
+        }
+        Set<TableId> tablesToFetch = new HashSet<>();
+        versions.forEach((table, version) -> {
+            if (!version.equals(previous.versions().get(table))) {
+                tablesToFetch.add(table);
+            }
+        });
+        for (TableId table : Set.copyOf(invalidatedTables)) {
+            invalidatedTables.remove(table);
+            if (versions.containsKey(table)) {
+                tablesToFetch.add(table);
+            }
+        }
+        Set<TableId> removedTables = previous.tables().keySet().stream()
+                .filter(table -> !versions.containsKey(table))
+                .collect(Collectors.toUnmodifiableSet());
+
+        // Spread the tables to fetch over at most "parallelism" batches, each fetched over one connection
+        List<TableId> sortedTablesToFetch = tablesToFetch.stream().sorted(tableOrder()).toList();
+        int batchCount = Math.max(1, Math.min(parallelism, sortedTablesToFetch.size()));
+        List<List<TableId>> batches = new ArrayList<>();
+        for (int i = 0; i < batchCount; i++) {
+            batches.add(sortedTablesToFetch.subList(
+                    sortedTablesToFetch.size() * i / batchCount,
+                    sortedTablesToFetch.size() * (i + 1) / batchCount));
+        }
+        List<List<ColumnMetaData>> fetchedColumns = runInParallel(batches, (conn, tableBatch) -> {
+            List<ColumnMetaData> columns = new ArrayList<>();
+            for (TableId table : tableBatch) {
+                columns.addAll(fetchColumnsByName(conn, table.schema(), table.tableName()));
+            }
+            return columns;
+        });
+
+        Map<TableId, TableMetaData> tables = new HashMap<>(previous.tables());
+        tables.keySet().removeAll(removedTables);
+        tables.keySet().removeAll(tablesToFetch);
+        tables.putAll(toTables(fetchedColumns.stream().flatMap(List::stream)));
+
+        snapshot = newSnapshot(previous.metaData(), tables, versions);
+        return new Refresh(snapshot.metaData(), Set.copyOf(tablesToFetch), removedTables);
+    }
+
+    private <T> List<List<ColumnMetaData>> runInParallel(
+            List<T> tasks,
+            JdbcBiFunction<T, List<ColumnMetaData>> task) throws SQLException {
+        if (tasks.isEmpty()) {
+            return List.of();
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            List<Future<List<ColumnMetaData>>> futures = new ArrayList<>();
+            for (T taskInput : tasks) {
+                futures.add(executorService.submit(() -> {
+                    try (Connection conn = connectionSupplier.get()) {
+                        return task.apply(conn, taskInput);
+                    }
+                }));
+            }
+            List<List<ColumnMetaData>> results = new ArrayList<>();
+            for (Future<List<ColumnMetaData>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while fetching metadata", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            } else if (e.getCause() instanceof UncheckedSQLException uncheckedSQLException) {
+                throw (SQLException) uncheckedSQLException.getCause();
+            }
+            throw new SQLException("Fetching metadata failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static List<ColumnMetaData> fetchColumns(Connection conn, String schemaPattern, String tableNamePattern)
+            throws SQLException {
+        try (Stream<ColumnMetaData> columns = stream(
+                conn.getMetaData().getColumns(null, schemaPattern, tableNamePattern, null),
+                RecordRowMapper.forRecord(ColumnMetaData.class))) {
+            return columns.toList();
+        }
+    }
+
+    /**
+     * Fetches the columns of the given schema and table (where null means any), matching the names exactly.
+     */
+    private static List<ColumnMetaData> fetchColumnsByName(Connection conn, String schema, String tableName)
+            throws SQLException {
+        String escape = conn.getMetaData().getSearchStringEscape();
+        if (escape == null || escape.isEmpty()) {
+            // Without an escape string, underscores and percent signs in names still act as wildcards, so the
+            // results may contain the columns of other tables, which are filtered out here
+            return fetchColumns(conn, schema, tableName).stream()
+                    .filter(column -> schema == null || schema.equals(column.tableSchema()))
+                    .filter(column -> tableName == null || tableName.equals(column.tableName()))
+                    .toList();
+        }
+        return fetchColumns(conn, escape(schema, escape), escape(tableName, escape));
+    }
+
+    private static String escape(String name, String escape) {
+        if (name == null) {
+            return null;
+        }
+        // Underscores and percent signs are wildcards in metadata search patterns
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+
+    private static Map<TableId, TableMetaData> toTables(Stream<ColumnMetaData> columns) {
+        return columns.collect(Collectors.groupingBy(
+                column -> new TableId(column.tableSchema(), column.tableName()),
+                Collectors.collectingAndThen(
+                        Collectors.toList(),
+                        cols -> new TableMetaData(cols.get(0).tableName(), List.copyOf(cols)))));
+    }
+
+    private static Snapshot newSnapshot(MetaData connectionInfo, Map<TableId, TableMetaData> tables, Map<TableId, Object> versions) {
+        List<TableMetaData> sortedTables = tables.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(tableOrder()))
+                .map(Map.Entry::getValue)
+                .toList();
+        var metaData = new MetaData(
+                connectionInfo.driverName(),
+                connectionInfo.driverVersion(),
+                connectionInfo.jdbcUrl(),
+                connectionInfo.jdbcConnection(),
+                sortedTables);
+        return new Snapshot(metaData, Map.copyOf(tables), Map.copyOf(versions));
+    }
+
+    private static Comparator<TableId> tableOrder() {
+        return Comparator.comparing(TableId::schema, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(TableId::tableName);
+    }
+}
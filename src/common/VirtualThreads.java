@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package common;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21 and later) through reflection, so that this code still compiles and runs on
+ * Java 17, where the methods return an empty Optional.
+ *
+ * @author Chris de Vreeze
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a factory of virtual threads named by the given prefix and a counter, like "Thread.ofVirtual().name(prefix, 0).factory()".
+     */
+    public static Optional<ThreadFactory> threadFactory(String namePrefix) {
+        if (!isSupported()) {
+            return Optional.empty();
+        }
+        try {
+            // Methods are looked up on the public Thread.Builder interface, because the builder class itself is not public
+            Class<?> builderInterface = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderInterface.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return Optional.of((ThreadFactory) builderInterface.getMethod("factory").invoke(builder));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread factory", e);
+        }
+    }
+
+    /**
+     * Returns "Executors.newVirtualThreadPerTaskExecutor()".
+     */
+    public static Optional<ExecutorService> newThreadPerTaskExecutor() {
+        try {
+            Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of((ExecutorService) factoryMethod.invoke(null));
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Returns "Executors.newThreadPerTaskExecutor(factory)", where the factory creates virtual threads named by the given
+     * prefix and a counter. Unlike the threads of "newThreadPerTaskExecutor()", these threads have a non-empty name.
+     */
+    public static Optional<ExecutorService> newThreadPerTaskExecutor(String namePrefix) {
+        Optional<ThreadFactory> threadFactory = threadFactory(namePrefix);
+        if (threadFactory.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            Method factoryMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return Optional.of((ExecutorService) factoryMethod.invoke(null, threadFactory.get()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+}
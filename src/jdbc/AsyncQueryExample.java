@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionFunction;
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+/**
+ * Issues thousands of independent queries against the "Zoo" HSQL database at once, using an {@link AsyncQueryExecutor}
+ * on top of a {@link ConnectionPool}. It also shows a query that is cancelled because it exceeds its timeout.
+ * Program {@link SetupDatabase} must have been run first.
+ *
+ * @author Chris de Vreeze
+ */
+public class AsyncQueryExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int POOL_SIZE = 4;
+
+    private static ConnectionFunction<Integer> nameLength(int id) {
+        return conn -> {
+            try (PreparedStatement ps = conn.prepareStatement("SELECT name FROM names WHERE id = ?")) {
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getString(1).length() : 0;
+                }
+            }
+        };
+    }
+
+    private static final ConnectionFunction<Long> slowQuery = conn -> {
+        // Cross join of system tables, which takes far longer than the timeout used below
+        String sql = """
+                SELECT count(*)
+                FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS a,
+                     INFORMATION_SCHEMA.SYSTEM_COLUMNS b,
+                     INFORMATION_SCHEMA.SYSTEM_COLUMNS c""";
+        try (PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int numberOfQueries = (args.length == 0) ? 10_000 : Integer.parseInt(args[0]);
+
+        ConnectionSupplier driverManager = () -> DriverManager.getConnection(JDBC_URL);
+
+        // Keep one connection open, so that the embedded database itself stays open
+        Connection keepDatabaseOpen = driverManager.get();
+        try (var pool = new ConnectionPool(driverManager, ConnectionPool.Config.withMaxSize(POOL_SIZE));
+             var executor = AsyncQueryExecutor.forPool(pool)) {
+            System.out.printf("Using virtual threads: %b%n", executor.usesVirtualThreads());
+
+            long start = System.nanoTime();
+            List<CompletableFuture<Integer>> futures = IntStream.range(0, numberOfQueries)
+                    .mapToObj(i -> executor.submit(nameLength(1 + i % 10), Duration.ofSeconds(30)))
+                    .toList();
+            int totalLength = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                    .thenApply(ignore -> futures.stream().mapToInt(CompletableFuture::join).sum())
+                    .join();
+            System.out.printf(
+                    "%d queries in %d ms (total name length %d)%n",
+                    numberOfQueries,
+                    (System.nanoTime() - start) / 1_000_000,
+                    totalLength);
+            System.out.printf("Pool metrics: %s%n", pool.metrics());
+
+            start = System.nanoTime();
+            try {
+                executor.submit(slowQuery, Duration.ofMillis(500)).join();
+            } catch (CompletionException e) {
+                System.out.printf(
+                        "Slow query failed after %d ms: %s%n", (System.nanoTime() - start) / 1_000_000, e.getCause());
+            }
+            // The connection of the cancelled query is returned to the pool again
+            System.out.printf("Name length of id 1 afterwards: %d%n", executor.submit(nameLength(1)).join());
+        } finally {
+            keepDatabaseOpen.close();
+        }
+    }
+}
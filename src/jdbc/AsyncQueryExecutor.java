@@ -0,0 +1,228 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import common.VirtualThreads;
+import jdbc.JdbcSupport.ConnectionFunction;
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.JdbcSupport.UncheckedSQLException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static jdbc.JdbcSupport.toConnectionFunction;
+
+/**
+ * Asynchronous executor of ConnectionFunctions, returning CompletableFutures. Each call runs on its own virtual thread
+ * if the JDK supports virtual threads (Java 21 and later). On Java 17 it falls back to a fixed pool of platform
+ * threads, sized to the maximum concurrency.
+ * <p>
+ * A semaphore, sized to the connection pool, limits the number of calls that hold a connection at the same time.
+ * So thousands of calls can be submitted at once, while at most "maxConcurrency" of them use the database.
+ * <p>
+ * SQLExceptions are wrapped in {@link UncheckedSQLException}s, just like in {@link JdbcSupport#toFunction}. A call
+ * that takes longer than its timeout completes with a TimeoutException, and its running statements are cancelled
+ * through {@link Statement#cancel()}. The same happens if the returned future is cancelled.
+ *
+ * @author Chris de Vreeze
+ */
+public final class AsyncQueryExecutor implements AutoCloseable {
+
+    private final ConnectionSupplier connectionSupplier;
+    private final Semaphore permits;
+    private final ExecutorService executorService;
+    private final boolean usesVirtualThreads;
+    private final ScheduledExecutorService timer;
+
+    public AsyncQueryExecutor(ConnectionSupplier connectionSupplier, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Max concurrency must be positive");
+        }
+        this.connectionSupplier = Objects.requireNonNull(connectionSupplier);
+        this.permits = new Semaphore(maxConcurrency);
+
+        Optional<ExecutorService> virtualThreadExecutor = VirtualThreads.newThreadPerTaskExecutor();
+        this.usesVirtualThreads = virtualThreadExecutor.isPresent();
+        this.executorService = virtualThreadExecutor.orElseGet(() -> Executors.newFixedThreadPool(maxConcurrency));
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "async-query-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates an executor for the given pool, where the concurrency is limited to the pool size.
+     */
+    public static AsyncQueryExecutor forPool(ConnectionPool connectionPool) {
+        return new AsyncQueryExecutor(connectionPool, connectionPool.config().maxSize());
+    }
+
+    public boolean usesVirtualThreads() {
+        return usesVirtualThreads;
+    }
+
+    public <R> CompletableFuture<R> submit(ConnectionFunction<R> f) {
+        return submit(f, Optional.empty());
+    }
+
+    public <R> CompletableFuture<R> submit(ConnectionFunction<R> f, Duration timeout) {
+        return submit(f, Optional.of(timeout));
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdown();
+        timer.shutdownNow();
+    }
+
+    private <R> CompletableFuture<R> submit(ConnectionFunction<R> f, Optional<Duration> optionalTimeout) {
+        Objects.requireNonNull(f);
+        var result = new CompletableFuture<R>();
+        var statements = new StatementTracker();
+
+        executorService.execute(() -> run(f, result, statements));
+
+        Optional<ScheduledFuture<?>> timeoutTask = optionalTimeout.map(timeout -> timer.schedule(
+                () -> result.completeExceptionally(new TimeoutException("Query timed out after " + timeout.toMillis() + " ms")),
+                timeout.toNanos(),
+                TimeUnit.NANOSECONDS));
+
+        result.whenComplete((value, exception) -> {
+            timeoutTask.ifPresent(task -> task.cancel(false));
+            if (exception instanceof TimeoutException || exception instanceof CancellationException) {
+                statements.cancelAll();
+            }
+        });
+        return result;
+    }
+
+    private <R> void run(ConnectionFunction<R> f, CompletableFuture<R> result, StatementTracker statements) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return;
+        }
+        try {
+            if (result.isDone()) {
+                // Timed out or cancelled while waiting for a permit
+                return;
+            }
+            try (Connection conn = connectionSupplier.get()) {
+                result.complete(toConnectionFunction(f).apply(statements.track(conn)));
+            }
+        } catch (SQLException e) {
+            result.completeExceptionally(new UncheckedSQLException(e));
+        } catch (RuntimeException | Error e) {
+            result.completeExceptionally(e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Keeps track of the statements created through a connection, so that they can be cancelled. Once cancelled, the
+     * tracked connection refuses to create more statements, and the tracked statements refuse to execute, because
+     * "Statement.cancel" only affects a statement that is already executing.
+     */
+    private static final class StatementTracker {
+
+        private final List<Statement> statements = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled = false;
+
+        Connection track(Connection conn) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                if (cancelled && !method.getName().equals("close") && !method.getName().equals("isClosed")) {
+                    throw cancelledException();
+                }
+                Object value = invoke(conn, method, args);
+                if (value instanceof Statement statement) {
+                    statements.add(statement);
+                    // Also if cancelAll has just run, without seeing this statement
+                    if (cancelled) {
+                        cancel(statement);
+                    }
+                    return track(statement, method.getReturnType());
+                }
+                return value;
+            };
+            return (Connection) Proxy.newProxyInstance(
+                    AsyncQueryExecutor.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        }
+
+        /**
+         * Returns a proxy of the statement, implementing the given statement interface (like PreparedStatement).
+         */
+        private Object track(Statement statement, Class<?> statementInterface) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                if (cancelled && method.getName().startsWith("execute")) {
+                    throw cancelledException();
+                }
+                return invoke(statement, method, args);
+            };
+            return Proxy.newProxyInstance(
+                    AsyncQueryExecutor.class.getClassLoader(), new Class<?>[]{statementInterface}, handler);
+        }
+
+        void cancelAll() {
+            cancelled = true;
+            statements.forEach(StatementTracker::cancel);
+        }
+
+        private static void cancel(Statement statement) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // Ignore, because the statement may already have been closed
+            }
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private static SQLException cancelledException() {
+            return new SQLException("The call has timed out or has been cancelled");
+        }
+    }
+}
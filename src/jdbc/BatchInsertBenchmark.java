@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.ZooDataGenerator.Name;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.batchInsert;
+
+/**
+ * Benchmark loading many rows into the "names" table of the "Zoo" HSQL database, comparing one "executeUpdate" per
+ * row (in auto-commit mode) with batched inserts of several batch sizes. Program {@link SetupDatabase} must have been
+ * run first. The inserted rows are deleted again afterwards.
+ * <p>
+ * The program takes an optional number of rows (default 1 million) as program argument.
+ *
+ * @author Chris de Vreeze
+ */
+public class BatchInsertBenchmark {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int FIRST_ID = 1_000;
+
+    private static final String INSERT_NAME = "INSERT INTO names (id, species_id, name) VALUES (?, ?, ?)";
+
+    private static Stream<Name> names(int numberOfRows) {
+        return IntStream.range(FIRST_ID, FIRST_ID + numberOfRows).mapToObj(i -> new Name(i, 1 + i % 2, "Name " + i));
+    }
+
+    private static void bindName(PreparedStatement ps, Name name) throws SQLException {
+        ps.setInt(1, name.id());
+        ps.setInt(2, name.speciesId());
+        ps.setString(3, name.name());
+    }
+
+    private static void deleteInsertedNames(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM names WHERE id >= ?")) {
+            ps.setInt(1, FIRST_ID);
+            ps.executeUpdate();
+        }
+    }
+
+    private static double insertRowByRow(Connection conn, int numberOfRows) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_NAME)) {
+            for (Name name : names(numberOfRows).toList()) {
+                bindName(ps, name);
+                ps.executeUpdate();
+            }
+        }
+        return numberOfRows * 1_000_000_000.0 / (System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfRows = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
+
+        try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+            deleteInsertedNames(conn);
+
+            int rowByRowCount = Math.min(numberOfRows, 100_000);
+            double rowsPerSecond = insertRowByRow(conn, rowByRowCount);
+            System.out.printf("Row by row (auto-commit), %d rows: %.0f rows/s%n", rowByRowCount, rowsPerSecond);
+            deleteInsertedNames(conn);
+
+            for (int batchSize : List.of(100, 1_000, 10_000)) {
+                var options = new BatchWriter.Options(batchSize, Math.max(1, 100_000 / batchSize));
+                BatchWriter.Result result =
+                        batchInsert(INSERT_NAME, BatchInsertBenchmark::bindName, options, names(numberOfRows)).apply(conn);
+                System.out.printf(
+                        "Batch size %d, %d rows in %d batches and %d transactions: %.0f rows/s%n",
+                        batchSize,
+                        result.rows(),
+                        result.batches(),
+                        result.transactions(),
+                        result.rowsPerSecond());
+                deleteInsertedNames(conn);
+            }
+        }
+    }
+}
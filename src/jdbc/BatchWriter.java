@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.StatementBinder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * Writer of many rows through one prepared statement, using JDBC batches ("addBatch" and "executeBatch").
+ * <p>
+ * If the connection is in auto-commit mode, the writer switches auto-commit off, and commits after every
+ * "batchesPerTransaction" batches. So a failure only rolls back the current chunk of rows. If the connection is
+ * not in auto-commit mode, the writer takes part in the caller's transaction, and does not commit at all.
+ * <p>
+ * Method {@link #finish()} writes and commits the remaining rows. Closing the writer without finishing it rolls back
+ * the uncommitted rows. Either way closing the writer restores the auto-commit mode of the connection.
+ *
+ * @author Chris de Vreeze
+ */
+public final class BatchWriter<T> implements AutoCloseable {
+
+    public record Options(int batchSize, int batchesPerTransaction) {
+
+        public Options {
+            if (batchSize <= 0 || batchesPerTransaction <= 0) {
+                throw new IllegalArgumentException("Batch size and batches per transaction must be positive");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(1_000, 10);
+        }
+    }
+
+    public record Result(long rows, long batches, long transactions, long elapsedNanos) {
+
+        public double rowsPerSecond() {
+            return (elapsedNanos == 0) ? 0.0 : rows * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+
+    private final Connection connection;
+    private final PreparedStatement ps;
+    private final StatementBinder<T> binder;
+    private final Options options;
+    private final boolean managesTransactions;
+    private final long startNanos = System.nanoTime();
+
+    private int pendingRows = 0;
+    private int batchesInTransaction = 0;
+    private long rows = 0;
+    private long batches = 0;
+    private long transactions = 0;
+    private boolean finished = false;
+
+    public BatchWriter(Connection connection, String sql, StatementBinder<T> binder, Options options) throws SQLException {
+        this.connection = Objects.requireNonNull(connection);
+        this.binder = Objects.requireNonNull(binder);
+        this.options = Objects.requireNonNull(options);
+        this.managesTransactions = connection.getAutoCommit();
+        this.ps = connection.prepareStatement(sql);
+        if (managesTransactions) {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    public void add(T value) throws SQLException {
+        binder.bind(ps, value);
+        ps.addBatch();
+        pendingRows += 1;
+        if (pendingRows == options.batchSize()) {
+            executeBatch();
+        }
+    }
+
+    /**
+     * Writes (and, if applicable, commits) the remaining rows, and returns the statistics.
+     */
+    public Result finish() throws SQLException {
+        if (pendingRows > 0) {
+            executeBatch();
+        }
+        if (batchesInTransaction > 0) {
+            commit();
+        }
+        finished = true;
+        return new Result(rows, batches, transactions, System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try (ps) {
+            if (!finished && managesTransactions) {
+                connection.rollback();
+            }
+        } finally {
+            if (managesTransactions) {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void executeBatch() throws SQLException {
+        ps.executeBatch();
+        rows += pendingRows;
+        batches += 1;
+        pendingRows = 0;
+        batchesInTransaction += 1;
+        if (batchesInTransaction == options.batchesPerTransaction()) {
+            commit();
+        }
+    }
+
+    private void commit() throws SQLException {
+        if (managesTransactions) {
+            connection.commit();
+            transactions += 1;
+        }
+        batchesInTransaction = 0;
+    }
+}
@@ -0,0 +1,723 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Columnar in-memory snapshot of a ResultSet, for analytics in Java without creating an object per row. Each column is
+ * stored as one primitive array: integer types as int[], BIGINT as long[], floating point types as double[], and
+ * DECIMAL/NUMERIC as long[] of unscaled values (e.g. 7.5 as 75 for DECIMAL(4,1)). Other types are read as strings,
+ * and dictionary-encoded into int[] codes.
+ * <p>
+ * Queries over the snapshot are expressed with "vectorized" operators, which loop over a column array at a time:
+ * filters produce a {@link Selection} (the indexes of the selected rows), group-by produces {@link Groups} (a dense
+ * group id per selected row), and sums aggregate a column over a selection or per group. String filters evaluate the
+ * predicate once per distinct value, and then only compare int codes.
+ * <p>
+ * Snapshots are immutable, and can therefore be shared between threads.
+ *
+ * @author Chris de Vreeze
+ */
+public final class ColumnarSnapshot {
+
+    /**
+     * Ordered set of selected row indexes.
+     */
+    public static final class Selection {
+
+        private final int[] rows;
+        private final int size;
+
+        private Selection(int[] rows, int size) {
+            this.rows = rows;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int row(int index) {
+            Objects.checkIndex(index, size);
+            return rows[index];
+        }
+    }
+
+    /**
+     * Grouping of a selection, with a dense group id (0 until the number of groups) per selected row.
+     */
+    public static final class Groups {
+
+        private final Selection selection;
+        private final int[] groupIds;
+        private final List<Object> keys;
+
+        private Groups(Selection selection, int[] groupIds, List<Object> keys) {
+            this.selection = selection;
+            this.groupIds = groupIds;
+            // Not List.copyOf, which does not allow the null key
+            this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+        }
+
+        public int groupCount() {
+            return keys.size();
+        }
+
+        /**
+         * Returns the group keys, indexed by group id. The group of the rows whose value is SQL NULL has key null, so
+         * it is distinct from the group of a string value "null".
+         */
+        public List<Object> keys() {
+            return keys;
+        }
+
+        public long[] counts() {
+            long[] counts = new long[groupCount()];
+            for (int i = 0; i < selection.size; i++) {
+                counts[groupIds[i]] += 1;
+            }
+            return counts;
+        }
+    }
+
+    public sealed interface Column permits IntColumn, LongColumn, DoubleColumn, DecimalColumn, StringColumn {
+
+        String name();
+
+        boolean isNull(int row);
+    }
+
+    public static final class IntColumn implements Column {
+
+        private final String name;
+        private final int[] values;
+        private final BitSet nulls;
+
+        private IntColumn(String name, int[] values, BitSet nulls) {
+            this.name = name;
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        public int get(int row) {
+            return values[row];
+        }
+
+        /**
+         * Returns the selected rows whose value is not null and satisfies the predicate.
+         */
+        public Selection filter(Selection selection, IntPredicate predicate) {
+            int[] result = new int[selection.size];
+            int count = 0;
+            for (int i = 0; i < selection.size; i++) {
+                int row = selection.rows[i];
+                if (predicate.test(values[row]) && !nulls.get(row)) {
+                    result[count++] = row;
+                }
+            }
+            return new Selection(result, count);
+        }
+
+        public long sum(Selection selection) {
+            long sum = 0;
+            for (int i = 0; i < selection.size; i++) {
+                sum += values[selection.rows[i]];
+            }
+            // Null values are stored as 0, so they do not contribute to the sum
+            return sum;
+        }
+
+        public long[] sum(Groups groups) {
+            long[] sums = new long[groups.groupCount()];
+            for (int i = 0; i < groups.selection.size; i++) {
+                sums[groups.groupIds[i]] += values[groups.selection.rows[i]];
+            }
+            return sums;
+        }
+
+        public Groups groupBy(Selection selection) {
+            Map<Integer, Integer> groupIdsByValue = new HashMap<>();
+            List<Object> keys = new ArrayList<>();
+            int[] groupIds = new int[selection.size];
+            for (int i = 0; i < selection.size; i++) {
+                int row = selection.rows[i];
+                Integer value = nulls.get(row) ? null : values[row];
+                groupIds[i] = groupIdsByValue.computeIfAbsent(value, v -> {
+                    keys.add(v);
+                    return keys.size() - 1;
+                });
+            }
+            return new Groups(selection, groupIds, keys);
+        }
+    }
+
+    public static final class LongColumn implements Column {
+
+        private final String name;
+        private final long[] values;
+        private final BitSet nulls;
+
+        private LongColumn(String name, long[] values, BitSet nulls) {
+            this.name = name;
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        public long get(int row) {
+            return values[row];
+        }
+
+        public Selection filter(Selection selection, LongPredicate predicate) {
+            return filterLongs(values, nulls, selection, predicate);
+        }
+
+        public long sum(Selection selection) {
+            return sumLongs(values, selection);
+        }
+
+        public long[] sum(Groups groups) {
+            return sumLongs(values, groups);
+        }
+    }
+
+    public static final class DoubleColumn implements Column {
+
+        private final String name;
+        private final double[] values;
+        private final BitSet nulls;
+
+        private DoubleColumn(String name, double[] values, BitSet nulls) {
+            this.name = name;
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        public double get(int row) {
+            return values[row];
+        }
+
+        public Selection filter(Selection selection, DoublePredicate predicate) {
+            int[] result = new int[selection.size];
+            int count = 0;
+            for (int i = 0; i < selection.size; i++) {
+                int row = selection.rows[i];
+                if (predicate.test(values[row]) && !nulls.get(row)) {
+                    result[count++] = row;
+                }
+            }
+            return new Selection(result, count);
+        }
+
+        public double sum(Selection selection) {
+            double sum = 0;
+            for (int i = 0; i < selection.size; i++) {
+                sum += values[selection.rows[i]];
+            }
+            return sum;
+        }
+
+        public double[] sum(Groups groups) {
+            double[] sums = new double[groups.groupCount()];
+            for (int i = 0; i < groups.selection.size; i++) {
+                sums[groups.groupIds[i]] += values[groups.selection.rows[i]];
+            }
+            return sums;
+        }
+    }
+
+    /**
+     * DECIMAL column, stored as unscaled longs with a fixed scale. Filters take predicates on the unscaled values,
+     * which can be compared with {@link #unscaled(BigDecimal)} of a constant.
+     */
+    public static final class DecimalColumn implements Column {
+
+        private final String name;
+        private final long[] unscaledValues;
+        private final int scale;
+        private final BitSet nulls;
+
+        private DecimalColumn(String name, long[] unscaledValues, int scale, BitSet nulls) {
+            this.name = name;
+            this.unscaledValues = unscaledValues;
+            this.scale = scale;
+            this.nulls = nulls;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        public int scale() {
+            return scale;
+        }
+
+        public BigDecimal get(int row) {
+            return nulls.get(row) ? null : BigDecimal.valueOf(unscaledValues[row], scale);
+        }
+
+        /**
+         * Returns the unscaled long value of the given decimal at the scale of this column.
+         */
+        public long unscaled(BigDecimal value) {
+            return value.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        }
+
+        public Selection filterUnscaled(Selection selection, LongPredicate predicate) {
+            return filterLongs(unscaledValues, nulls, selection, predicate);
+        }
+
+        public BigDecimal sum(Selection selection) {
+            return BigDecimal.valueOf(sumLongs(unscaledValues, selection), scale);
+        }
+
+        public BigDecimal[] sum(Groups groups) {
+            return Arrays.stream(sumLongs(unscaledValues, groups))
+                    .mapToObj(sum -> BigDecimal.valueOf(sum, scale))
+                    .toArray(BigDecimal[]::new);
+        }
+    }
+
+    /**
+     * Dictionary-encoded string column, with code -1 for null.
+     */
+    public static final class StringColumn implements Column {
+
+        private final String name;
+        private final int[] codes;
+        private final List<String> dictionary;
+
+        private StringColumn(String name, int[] codes, List<String> dictionary) {
+            this.name = name;
+            this.codes = codes;
+            this.dictionary = List.copyOf(dictionary);
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return codes[row] < 0;
+        }
+
+        public String get(int row) {
+            return (codes[row] < 0) ? null : dictionary.get(codes[row]);
+        }
+
+        public int distinctValueCount() {
+            return dictionary.size();
+        }
+
+        /**
+         * Returns the selected rows whose value is not null and satisfies the predicate. The predicate is only
+         * evaluated once per distinct value.
+         */
+        public Selection filter(Selection selection, Predicate<String> predicate) {
+            boolean[] matchingCodes = new boolean[dictionary.size()];
+            for (int code = 0; code < matchingCodes.length; code++) {
+                matchingCodes[code] = predicate.test(dictionary.get(code));
+            }
+            int[] result = new int[selection.size];
+            int count = 0;
+            for (int i = 0; i < selection.size; i++) {
+                int row = selection.rows[i];
+                int code = codes[row];
+                if (code >= 0 && matchingCodes[code]) {
+                    result[count++] = row;
+                }
+            }
+            return new Selection(result, count);
+        }
+
+        /**
+         * Groups the selected rows by value, using the dictionary codes, so without any hashing of strings.
+         */
+        public Groups groupBy(Selection selection) {
+            // Dictionary code + 1 (so that null maps to 0) to dense group id
+            int[] groupIdsByCode = new int[dictionary.size() + 1];
+            Arrays.fill(groupIdsByCode, -1);
+            List<Object> keys = new ArrayList<>();
+            int[] groupIds = new int[selection.size];
+            for (int i = 0; i < selection.size; i++) {
+                int code = codes[selection.rows[i]];
+                int groupId = groupIdsByCode[code + 1];
+                if (groupId < 0) {
+                    groupId = keys.size();
+                    groupIdsByCode[code + 1] = groupId;
+                    keys.add((code < 0) ? null : dictionary.get(code));
+                }
+                groupIds[i] = groupId;
+            }
+            return new Groups(selection, groupIds, keys);
+        }
+    }
+
+    private final int rowCount;
+    private final Map<String, Column> columns;
+
+    private ColumnarSnapshot(int rowCount, Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /**
+     * Reads all remaining rows of the ResultSet into a columnar snapshot. The ResultSet is not closed.
+     * <p>
+     * Columns are looked up by label, so the labels must be unique (case-insensitively). For example, an unaliased join
+     * of two tables that both have an "id" column is rejected with an IllegalArgumentException, before reading any rows.
+     */
+    public static ColumnarSnapshot of(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        List<ColumnBuilder> builders = new ArrayList<>(columnCount);
+        Set<String> labels = new HashSet<>();
+        for (int i = 1; i <= columnCount; i++) {
+            String label = metaData.getColumnLabel(i);
+            if (!labels.add(label.toUpperCase(Locale.ROOT))) {
+                throw new IllegalArgumentException(
+                        "Duplicate column label " + label + " (column " + i + "); use column aliases to make labels unique");
+            }
+            builders.add(ColumnBuilder.forType(label, metaData.getColumnType(i), metaData.getScale(i)));
+        }
+
+        int rowCount = 0;
+        while (rs.next()) {
+            for (int i = 0; i < columnCount; i++) {
+                builders.get(i).add(rs, i + 1, rowCount);
+            }
+            rowCount += 1;
+        }
+
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (ColumnBuilder builder : builders) {
+            Column column = builder.build(rowCount);
+            columns.put(column.name().toUpperCase(Locale.ROOT), column);
+        }
+        return new ColumnarSnapshot(rowCount, columns);
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public List<String> columnNames() {
+        return columns.values().stream().map(Column::name).toList();
+    }
+
+    /**
+     * Returns the column with the given (case-insensitive) name or label.
+     */
+    public Column column(String name) {
+        Column column = columns.get(name.toUpperCase(Locale.ROOT));
+        if (column == null) {
+            throw new IllegalArgumentException("No column " + name + " in " + columnNames());
+        }
+        return column;
+    }
+
+    public IntColumn intColumn(String name) {
+        return column(name, IntColumn.class);
+    }
+
+    public LongColumn longColumn(String name) {
+        return column(name, LongColumn.class);
+    }
+
+    public DoubleColumn doubleColumn(String name) {
+        return column(name, DoubleColumn.class);
+    }
+
+    public DecimalColumn decimalColumn(String name) {
+        return column(name, DecimalColumn.class);
+    }
+
+    public StringColumn stringColumn(String name) {
+        return column(name, StringColumn.class);
+    }
+
+    /**
+     * Returns the selection of all rows, which is the starting point of filters.
+     */
+    public Selection all() {
+        int[] rows = new int[rowCount];
+        Arrays.setAll(rows, i -> i);
+        return new Selection(rows, rowCount);
+    }
+
+    private <C extends Column> C column(String name, Class<C> columnClass) {
+        Column column = column(name);
+        if (!columnClass.isInstance(column)) {
+            throw new IllegalArgumentException("Column " + name + " is a " + column.getClass().getSimpleName());
+        }
+        return columnClass.cast(column);
+    }
+
+    private static Selection filterLongs(long[] values, BitSet nulls, Selection selection, LongPredicate predicate) {
+        int[] result = new int[selection.size];
+        int count = 0;
+        for (int i = 0; i < selection.size; i++) {
+            int row = selection.rows[i];
+            if (predicate.test(values[row]) && !nulls.get(row)) {
+                result[count++] = row;
+            }
+        }
+        return new Selection(result, count);
+    }
+
+    private static long sumLongs(long[] values, Selection selection) {
+        long sum = 0;
+        for (int i = 0; i < selection.size; i++) {
+            sum += values[selection.rows[i]];
+        }
+        return sum;
+    }
+
+    private static long[] sumLongs(long[] values, Groups groups) {
+        long[] sums = new long[groups.groupCount()];
+        for (int i = 0; i < groups.selection.size; i++) {
+            sums[groups.groupIds[i]] += values[groups.selection.rows[i]];
+        }
+        return sums;
+    }
+
+    /**
+     * Growable column under construction. Null values are stored as 0 in the primitive arrays, and marked in a BitSet.
+     */
+    private abstract static class ColumnBuilder {
+
+        final String name;
+        final BitSet nulls = new BitSet();
+
+        ColumnBuilder(String name) {
+            this.name = name;
+        }
+
+        abstract void add(ResultSet rs, int columnIndex, int row) throws SQLException;
+
+        abstract Column build(int rowCount);
+
+        static ColumnBuilder forType(String name, int sqlType, int scale) {
+            return switch (sqlType) {
+                case Types.INTEGER, Types.SMALLINT, Types.TINYINT -> new IntColumnBuilder(name);
+                case Types.BIGINT -> new LongColumnBuilder(name);
+                case Types.DOUBLE, Types.FLOAT, Types.REAL -> new DoubleColumnBuilder(name);
+                case Types.DECIMAL, Types.NUMERIC -> new DecimalColumnBuilder(name, scale);
+                default -> new StringColumnBuilder(name);
+            };
+        }
+    }
+
+    private static final class IntColumnBuilder extends ColumnBuilder {
+
+        private int[] values = new int[16];
+
+        IntColumnBuilder(String name) {
+            super(name);
+        }
+
+        @Override
+        void add(ResultSet rs, int columnIndex, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, 2 * row);
+            }
+            values[row] = rs.getInt(columnIndex);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new IntColumn(name, Arrays.copyOf(values, rowCount), nulls);
+        }
+    }
+
+    private static final class LongColumnBuilder extends ColumnBuilder {
+
+        private long[] values = new long[16];
+
+        LongColumnBuilder(String name) {
+            super(name);
+        }
+
+        @Override
+        void add(ResultSet rs, int columnIndex, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, 2 * row);
+            }
+            values[row] = rs.getLong(columnIndex);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new LongColumn(name, Arrays.copyOf(values, rowCount), nulls);
+        }
+    }
+
+    private static final class DoubleColumnBuilder extends ColumnBuilder {
+
+        private double[] values = new double[16];
+
+        DoubleColumnBuilder(String name) {
+            super(name);
+        }
+
+        @Override
+        void add(ResultSet rs, int columnIndex, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, 2 * row);
+            }
+            values[row] = rs.getDouble(columnIndex);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new DoubleColumn(name, Arrays.copyOf(values, rowCount), nulls);
+        }
+    }
+
+    private static final class DecimalColumnBuilder extends ColumnBuilder {
+
+        private final int scale;
+        private long[] unscaledValues = new long[16];
+
+        DecimalColumnBuilder(String name, int scale) {
+            super(name);
+            this.scale = scale;
+        }
+
+        @Override
+        void add(ResultSet rs, int columnIndex, int row) throws SQLException {
+            if (row == unscaledValues.length) {
+                unscaledValues = Arrays.copyOf(unscaledValues, 2 * row);
+            }
+            BigDecimal value = rs.getBigDecimal(columnIndex);
+            if (value == null) {
+                nulls.set(row);
+            } else {
+                try {
+                    unscaledValues[row] = value.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+                } catch (ArithmeticException e) {
+                    throw new SQLException("Value " + value + " of column " + name + " does not fit scale " + scale, e);
+                }
+            }
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new DecimalColumn(name, Arrays.copyOf(unscaledValues, rowCount), scale, nulls);
+        }
+    }
+
+    private static final class StringColumnBuilder extends ColumnBuilder {
+
+        private int[] codes = new int[16];
+        private final Map<String, Integer> codesByValue = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+
+        StringColumnBuilder(String name) {
+            super(name);
+        }
+
+        @Override
+        void add(ResultSet rs, int columnIndex, int row) throws SQLException {
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, 2 * row);
+            }
+            String value = rs.getString(columnIndex);
+            if (value == null) {
+                codes[row] = -1;
+            } else {
+                codes[row] = codesByValue.computeIfAbsent(value, v -> {
+                    dictionary.add(v);
+                    return dictionary.size() - 1;
+                });
+            }
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new StringColumn(name, Arrays.copyOf(codes, rowCount), dictionary);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.ColumnarSnapshot.Groups;
+import jdbc.ColumnarSnapshot.Selection;
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.query;
+
+/**
+ * Reporting over "exhibits" joined with "names" in the "Zoo" HSQL database, comparing a list of row records with a
+ * {@link ColumnarSnapshot}. The report counts the names starting with "E" per exhibit name, and sums the acres of
+ * their exhibits.
+ * <p>
+ * Program {@link SetupDatabase} must have been run first. The program first adds generated rows (see
+ * {@link ZooDataGenerator}), and deletes them again at the end. It takes an optional number of "names" rows
+ * (default 1 million) as program argument.
+ *
+ * @author Chris de Vreeze
+ */
+public class ColumnarSnapshotExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int FIRST_ID = 1_000;
+
+    private static final int ITERATIONS = 20;
+
+    private static final String SQL = """
+            SELECT e.name AS exhibit, e.num_acres, n.id, n.name
+            FROM names n JOIN exhibits e ON n.species_id = e.id""";
+
+    // Both tables have an "id" and a "name" column, so without aliases the column labels are ambiguous
+    private static final String UNALIASED_SQL = "SELECT * FROM names n JOIN exhibits e ON n.species_id = e.id";
+
+    private record Row(String exhibit, BigDecimal numAcres, int id, String name) {
+    }
+
+    private record Totals(long count, BigDecimal numAcres) {
+    }
+
+    private static Map<String, Totals> reportFromRows(List<Row> rows) {
+        return rows.stream()
+                .filter(row -> row.name().startsWith("E"))
+                .collect(Collectors.groupingBy(
+                        Row::exhibit,
+                        TreeMap::new,
+                        Collectors.collectingAndThen(
+                                Collectors.toList(),
+                                group -> new Totals(
+                                        group.size(),
+                                        group.stream().map(Row::numAcres).reduce(BigDecimal.ZERO, BigDecimal::add)))));
+    }
+
+    private static Map<String, Totals> reportFromSnapshot(ColumnarSnapshot snapshot) {
+        Selection selection = snapshot.stringColumn("name").filter(snapshot.all(), name -> name.startsWith("E"));
+        Groups groups = snapshot.stringColumn("exhibit").groupBy(selection);
+        long[] counts = groups.counts();
+        BigDecimal[] acres = snapshot.decimalColumn("num_acres").sum(groups);
+
+        Map<String, Totals> result = new TreeMap<>();
+        for (int groupId = 0; groupId < groups.groupCount(); groupId++) {
+            result.put((String) groups.keys().get(groupId), new Totals(counts[groupId], acres[groupId]));
+        }
+        return result;
+    }
+
+    private static void deleteInsertedRows(Connection conn) throws SQLException {
+        for (String sql : List.of("DELETE FROM names WHERE id >= ?", "DELETE FROM exhibits WHERE id >= ?")) {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, FIRST_ID);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfNames = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
+
+        ConnectionSupplier connectionSupplier = () -> DriverManager.getConnection(JDBC_URL);
+
+        try (Connection conn = connectionSupplier.get()) {
+            deleteInsertedRows(conn);
+            try {
+                new ParallelBulkLoader(connectionSupplier, 1, BatchWriter.Options.defaults())
+                        .load(new ZooDataGenerator(42).tableLoads(FIRST_ID, ZooDataGenerator.Scale.ofNames(numberOfNames)));
+
+                long start = System.nanoTime();
+                List<Row> rows;
+                try (Stream<Row> rowStream = query(SQL, rs -> new Row(rs.getString(1), rs.getBigDecimal(2), rs.getInt(3), rs.getString(4))).apply(conn)) {
+                    rows = rowStream.toList();
+                }
+                System.out.printf("Loaded %d row records in %d ms%n", rows.size(), (System.nanoTime() - start) / 1_000_000);
+
+                start = System.nanoTime();
+                ColumnarSnapshot snapshot;
+                try (PreparedStatement ps = conn.prepareStatement(SQL);
+                     ResultSet rs = ps.executeQuery()) {
+                    snapshot = ColumnarSnapshot.of(rs);
+                }
+                System.out.printf(
+                        "Loaded columnar snapshot of %d rows in %d ms (%d distinct exhibit names, %d distinct names)%n",
+                        snapshot.rowCount(),
+                        (System.nanoTime() - start) / 1_000_000,
+                        snapshot.stringColumn("exhibit").distinctValueCount(),
+                        snapshot.stringColumn("name").distinctValueCount());
+
+                try (PreparedStatement ps = conn.prepareStatement(UNALIASED_SQL);
+                     ResultSet rs = ps.executeQuery()) {
+                    ColumnarSnapshot.of(rs);
+                    throw new IllegalStateException("Expected the unaliased join to be rejected");
+                } catch (IllegalArgumentException e) {
+                    System.out.printf("Unaliased join rejected: %s%n", e.getMessage());
+                }
+
+                Map<String, Totals> expected = reportFromRows(rows);
+                Map<String, Totals> actual = reportFromSnapshot(snapshot);
+                System.out.printf("Same report: %b (%d groups)%n", expected.equals(actual), actual.size());
+
+                for (int round = 0; round < 2; round++) {
+                    start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        reportFromRows(rows);
+                    }
+                    long rowMillis = (System.nanoTime() - start) / 1_000_000;
+
+                    start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        reportFromSnapshot(snapshot);
+                    }
+                    long columnarMillis = (System.nanoTime() - start) / 1_000_000;
+                    System.out.printf("Round %d: %d reports from row records in %d ms, from columnar snapshot in %d ms%n",
+                            round + 1, ITERATIONS, rowMillis, columnarMillis);
+                }
+                actual.entrySet().stream().limit(5).forEach(kv -> System.out.printf("\t%s: %s%n", kv.getKey(), kv.getValue()));
+            } finally {
+                deleteInsertedRows(conn);
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded JDBC connection pool, which is itself a {@link ConnectionSupplier}. Closing a borrowed connection returns it
+ * to the pool instead of closing the physical connection.
+ * <p>
+ * The idle connections are kept in a lock-free deque, and the pool size is bounded by a semaphore. So in the common
+ * case borrowing and returning a connection are just a few CAS operations. Only if all connections are in use,
+ * borrowers wait (bounded by a timeout) for a permit.
+ * <p>
+ * Idle connections are validated on borrow, and evicted by a background (daemon) thread once they have been idle
+ * for longer than the configured idle timeout.
+ * <p>
+ * When a connection is returned, the statements the borrower left open are closed, an open transaction is rolled
+ * back, and the auto-commit, read-only, transaction isolation, catalog and schema settings are restored to those of
+ * the new physical connection. Statements of a borrowed connection return the borrowed connection (not the physical
+ * one) from "getConnection", and the physical connection cannot be unwrapped.
+ *
+ * @author Chris de Vreeze
+ */
+public final class ConnectionPool implements ConnectionSupplier, AutoCloseable {
+
+    public record Config(int maxSize, Duration borrowTimeout, Duration idleTimeout, int validationTimeoutSeconds) {
+
+        public Config {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Max pool size must be positive");
+            }
+            Objects.requireNonNull(borrowTimeout);
+            Objects.requireNonNull(idleTimeout);
+            if (validationTimeoutSeconds < 0) {
+                throw new IllegalArgumentException("Validation timeout must not be negative");
+            }
+        }
+
+        public static Config withMaxSize(int maxSize) {
+            return new Config(maxSize, Duration.ofSeconds(30), Duration.ofMinutes(10), 5);
+        }
+    }
+
+    public record Metrics(
+            int active,
+            int idle,
+            long borrows,
+            long waits,
+            long timeouts,
+            long totalWaitNanos,
+            long maxWaitNanos,
+            long created,
+            long destroyed) {
+
+        public double averageWaitMillis() {
+            return (waits == 0) ? 0.0 : totalWaitNanos / (waits * 1_000_000.0);
+        }
+    }
+
+    private static final class PooledConnection {
+
+        private final Connection physical;
+        // The initial settings of the physical connection, restored when the connection is returned
+        private final boolean readOnly;
+        private final int transactionIsolation;
+        private final String catalog;
+        private final String schema;
+        private volatile long lastReturnedNanos = System.nanoTime();
+        // Created on demand by the borrower, and handed over to the next borrower through the idle deque
+        private StatementCache statementCache;
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            try {
+                this.readOnly = physical.isReadOnly();
+                this.transactionIsolation = physical.getTransactionIsolation();
+                this.catalog = physical.getCatalog();
+                this.schema = physical.getSchema();
+            } catch (SQLException e) {
+                try {
+                    physical.close();
+                } catch (SQLException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                throw e;
+            }
+        }
+
+        void restoreSettings() throws SQLException {
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly() != readOnly) {
+                physical.setReadOnly(readOnly);
+            }
+            if (physical.getTransactionIsolation() != transactionIsolation) {
+                physical.setTransactionIsolation(transactionIsolation);
+            }
+            if (catalog != null && !catalog.equals(physical.getCatalog())) {
+                physical.setCatalog(catalog);
+            }
+            if (schema != null && !schema.equals(physical.getSchema())) {
+                physical.setSchema(schema);
+            }
+            physical.clearWarnings();
+        }
+    }
+
+    private final ConnectionSupplier connectionFactory;
+    private final Config config;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+
+    public ConnectionPool(ConnectionSupplier connectionFactory, Config config) {
+        this.connectionFactory = Objects.requireNonNull(connectionFactory);
+        this.config = Objects.requireNonNull(config);
+        this.permits = new Semaphore(config.maxSize());
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriodMillis = Math.max(config.idleTimeout().toMillis() / 2, 100);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, evictionPeriodMillis, evictionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting at most the configured borrow timeout if all connections are in use.
+     */
+    @Override
+    public Connection get() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        acquirePermit();
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isValid(pooled)) {
+                    borrows.increment();
+                    return newLease(pooled);
+                }
+                destroy(pooled);
+            }
+            pooled = new PooledConnection(connectionFactory.get());
+            created.increment();
+            borrows.increment();
+            return newLease(pooled);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    public Metrics metrics() {
+        return new Metrics(
+                config.maxSize() - permits.availablePermits(),
+                idle.size(),
+                borrows.sum(),
+                waits.sum(),
+                timeouts.sum(),
+                totalWaitNanos.sum(),
+                maxWaitNanos.get(),
+                created.sum(),
+                destroyed.sum());
+    }
+
+    /**
+     * Closes the pool and all idle connections. Connections that are still borrowed are closed when returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private void acquirePermit() throws SQLException {
+        // Fast path, unless others are already waiting (barging would starve them)
+        if (!permits.hasQueuedThreads() && permits.tryAcquire()) {
+            return;
+        }
+        waits.increment();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(config.borrowTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        long waitNanos = System.nanoTime() - start;
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulate(waitNanos);
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTransientConnectionException(
+                    String.format("No connection available within %d ms", config.borrowTimeout().toMillis()));
+        }
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(config.validationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            // Leave the connection in a clean state for the next borrower
+            pooled.restoreSettings();
+            pooled.lastReturnedNanos = System.nanoTime();
+            idle.offerFirst(pooled);
+            // If the pool has been closed in the meantime, its drain of the idle connections may have missed this one
+            if (closed && idle.removeFirstOccurrence(pooled)) {
+                destroy(pooled);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.nanoTime();
+        long idleTimeoutNanos = config.idleTimeout().toNanos();
+        // The oldest idle connections are at the end of the deque
+        Iterator<PooledConnection> iter = idle.descendingIterator();
+        while (iter.hasNext()) {
+            PooledConnection pooled = iter.next();
+            if (now - pooled.lastReturnedNanos > idleTimeoutNanos && idle.removeFirstOccurrence(pooled)) {
+                destroy(pooled);
+            }
+        }
+    }
+
+    /**
+     * Returns the statement cache of the physical connection of the given lease, creating it if needed, or an empty
+     * Optional if the connection is not a lease of a ConnectionPool. The cache is kept when the connection is returned
+     * to the pool, so later borrowers reuse its statements.
+     */
+    static Optional<StatementCache> statementCacheOf(Connection connection, int maxSize) throws SQLException {
+        if (!Proxy.isProxyClass(connection.getClass()) || !(Proxy.getInvocationHandler(connection) instanceof Lease lease)) {
+            return Optional.empty();
+        }
+        if (lease.returned.get()) {
+            throw new SQLException("Connection has been returned to the pool");
+        }
+        PooledConnection pooled = lease.pooled;
+        if (pooled.statementCache == null) {
+            pooled.statementCache = new StatementCache(pooled.physical, maxSize);
+        }
+        return Optional.of(pooled.statementCache);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        try {
+            if (pooled.statementCache != null) {
+                pooled.statementCache.close();
+            }
+        } catch (SQLException e) {
+            // Ignore, because closing the connection closes its statements anyway
+        }
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // Ignore, because the connection is discarded anyway
+        }
+        destroyed.increment();
+    }
+
+    private Connection newLease(PooledConnection pooled) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Lease(pooled));
+    }
+
+    /**
+     * Borrowed connection handle. Closing it closes the statements created through it, and returns the physical
+     * connection to the pool (at most once).
+     */
+    private final class Lease implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+        // Statements created through this lease, and not yet closed (the statements of the StatementCache are not
+        // created through the lease, and stay open for the next borrower)
+        private final Set<Statement> openStatements = ConcurrentHashMap.newKeySet();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (returned.compareAndSet(false, true)) {
+                        closeOpenStatements();
+                        release(pooled);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned.get() || pooled.physical.isClosed();
+                }
+                case "unwrap" -> {
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    throw new SQLException("A pooled connection cannot be unwrapped to " + ((Class<?>) args[0]).getName());
+                }
+                case "isWrapperFor" -> {
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled(" + pooled.physical + ")";
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                default -> {
+                    if (returned.get()) {
+                        throw new SQLException("Connection has been returned to the pool");
+                    }
+                    Object result = delegate(pooled.physical, method, args);
+                    if (result instanceof Statement statement) {
+                        openStatements.add(statement);
+                        return newStatementProxy((Connection) proxy, statement, method.getReturnType());
+                    }
+                    return result;
+                }
+            }
+        }
+
+        private Object newStatementProxy(Connection connection, Statement statement, Class<?> statementType) {
+            return Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{statementType},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        // The borrowed connection, and not the physical one, which would bypass the lease
+                        case "getConnection" -> connection;
+                        case "close" -> {
+                            openStatements.remove(statement);
+                            statement.close();
+                            yield null;
+                        }
+                        case "unwrap" -> {
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                yield proxy;
+                            }
+                            throw new SQLException("A pooled statement cannot be unwrapped to " + ((Class<?>) args[0]).getName());
+                        }
+                        case "isWrapperFor" -> ((Class<?>) args[0]).isInstance(proxy);
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        default -> delegate(statement, method, args);
+                    });
+        }
+
+        private void closeOpenStatements() {
+            for (Statement statement : openStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // Ignore, because the connection is checked when it is returned to the pool
+                }
+            }
+            openStatements.clear();
+        }
+
+        private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Compares running many small queries against the "Zoo" HSQL database with and without a {@link ConnectionPool}.
+ * Program {@link SetupDatabase} must have been run first.
+ *
+ * @author Chris de Vreeze
+ */
+public class ConnectionPoolExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int NUMBER_OF_THREADS = 8;
+
+    private static int countNames(ConnectionSupplier connectionSupplier) throws SQLException {
+        try (Connection conn = connectionSupplier.get();
+             PreparedStatement ps = conn.prepareStatement("SELECT count(*) FROM names");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static long runQueries(ConnectionSupplier connectionSupplier, int numberOfQueries)
+            throws InterruptedException, ExecutionException {
+        List<Callable<Integer>> queries = IntStream.range(0, numberOfQueries)
+                .mapToObj(i -> (Callable<Integer>) () -> countNames(connectionSupplier))
+                .toList();
+        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        long start = System.nanoTime();
+        try {
+            // Getting the results rethrows any failure, like a borrow timeout, so that it fails the run
+            for (Future<Integer> f : executorService.invokeAll(queries)) {
+                f.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfQueries = (args.length == 0) ? 20_000 : Integer.parseInt(args[0]);
+
+        ConnectionSupplier driverManager = () -> DriverManager.getConnection(JDBC_URL);
+
+        // Keep one connection open, so that the embedded database itself stays open during the comparison
+        Connection keepDatabaseOpen = driverManager.get();
+        try {
+            long millis = runQueries(driverManager, numberOfQueries);
+            System.out.printf("Without pool: %d queries in %d ms%n", numberOfQueries, millis);
+
+            try (var pool = new ConnectionPool(driverManager, ConnectionPool.Config.withMaxSize(NUMBER_OF_THREADS / 2))) {
+                millis = runQueries(pool, numberOfQueries);
+                System.out.printf("With pool: %d queries in %d ms%n", numberOfQueries, millis);
+                System.out.printf("Pool metrics: %s%n", pool.metrics());
+                System.out.printf("Average wait: %.3f ms%n", pool.metrics().averageWaitMillis());
+            }
+        } finally {
+            keepDatabaseOpen.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionFunction;
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static jdbc.JdbcSupport.inTransaction;
+import static jdbc.JdbcSupport.update;
+
+/**
+ * Benchmark of small write transactions from concurrent writers against the "Zoo" HSQL database in file mode,
+ * comparing auto-commit, explicit transactions (see {@link JdbcSupport#inTransaction}) and group commit (see
+ * {@link GroupCommitter}). Each transaction inserts one "names" row.
+ * <p>
+ * By default, HSQLDB only syncs its log to disk every 500 ms ("write delay"), which makes commits cheap but not
+ * durable. This benchmark therefore switches to a sync at each commit, and restores the original setting afterwards.
+ * Program {@link SetupDatabase} must have been run first. The inserted rows are deleted again after each run.
+ * <p>
+ * Program arguments (both optional): the number of writer threads (default 8), and the number of transactions per
+ * writer (default 500).
+ *
+ * @author Chris de Vreeze
+ */
+public class GroupCommitBenchmark {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int FIRST_ID = 1_000;
+
+    @FunctionalInterface
+    private interface Writer {
+
+        void write(int id) throws SQLException;
+    }
+
+    private static ConnectionFunction<Integer> insertName(int id) {
+        return update(ZooDataGenerator.INSERT_NAME, ps -> {
+            ps.setInt(1, id);
+            ps.setInt(2, 1);
+            ps.setString(3, "Name " + id);
+        });
+    }
+
+    private static long run(String description, int numberOfWriters, int transactionsPerWriter, List<Writer> writers)
+            throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfWriters);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < numberOfWriters; w++) {
+                Writer writer = writers.get(w);
+                int firstId = FIRST_ID + w * transactionsPerWriter;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < transactionsPerWriter; i++) {
+                        writer.write(firstId + i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long transactions = (long) numberOfWriters * transactionsPerWriter;
+        double transactionsPerSecond = transactions * 1_000_000_000.0 / elapsedNanos;
+        System.out.printf(
+                "%-20s %d transactions in %5d ms, %8.0f transactions/s%n",
+                description + ":", transactions, elapsedNanos / 1_000_000, transactionsPerSecond);
+        return elapsedNanos;
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void deleteInsertedRows(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM names WHERE id >= ?")) {
+            ps.setInt(1, FIRST_ID);
+            ps.executeUpdate();
+        }
+    }
+
+    private static int writeDelayMillis(Connection conn) throws SQLException {
+        String sql = """
+                SELECT PROPERTY_VALUE FROM INFORMATION_SCHEMA.SYSTEM_PROPERTIES
+                WHERE PROPERTY_NAME = 'hsqldb.write_delay_millis'""";
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? Integer.parseInt(rs.getString(1)) : 500;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfWriters = (args.length >= 1) ? Integer.parseInt(args[0]) : 8;
+        int transactionsPerWriter = (args.length >= 2) ? Integer.parseInt(args[1]) : 500;
+
+        ConnectionSupplier connectionSupplier = () -> DriverManager.getConnection(JDBC_URL);
+
+        try (Connection conn = connectionSupplier.get()) {
+            int originalWriteDelayMillis = writeDelayMillis(conn);
+            execute(conn, "SET FILES WRITE DELAY FALSE");
+            try {
+                deleteInsertedRows(conn);
+
+                List<Connection> writerConnections = new ArrayList<>();
+                try {
+                    for (int w = 0; w < numberOfWriters; w++) {
+                        writerConnections.add(connectionSupplier.get());
+                    }
+
+                    long autoCommitNanos = run("Auto-commit", numberOfWriters, transactionsPerWriter,
+                            writerConnections.stream().<Writer>map(c -> id -> insertName(id).apply(c)).toList());
+                    deleteInsertedRows(conn);
+
+                    run("Transactions", numberOfWriters, transactionsPerWriter,
+                            writerConnections.stream().<Writer>map(c -> id -> inTransaction(insertName(id)).apply(c)).toList());
+                    deleteInsertedRows(conn);
+
+                    for (Duration window : List.of(Duration.ZERO, Duration.ofMillis(1), Duration.ofMillis(5))) {
+                        var options = new GroupCommitter.Options(window, 256);
+                        try (var groupCommitter = new GroupCommitter(connectionSupplier, options)) {
+                            Writer writer = id -> groupCommitter.execute(insertName(id));
+                            long groupCommitNanos = run("Group commit " + window.toMillis() + " ms", numberOfWriters,
+                                    transactionsPerWriter, writerConnections.stream().map(c -> writer).toList());
+                            System.out.printf("\tAverage group size %.1f, speedup over auto-commit %.1f%n",
+                                    groupCommitter.metrics().averageGroupSize(),
+                                    autoCommitNanos / (double) groupCommitNanos);
+                        }
+                        deleteInsertedRows(conn);
+                    }
+                } finally {
+                    for (Connection writerConnection : writerConnections) {
+                        writerConnection.close();
+                    }
+                }
+            } finally {
+                execute(conn, (originalWriteDelayMillis == 0)
+                        ? "SET FILES WRITE DELAY FALSE"
+                        : "SET FILES WRITE DELAY " + originalWriteDelayMillis + " MILLIS");
+            }
+        }
+    }
+}
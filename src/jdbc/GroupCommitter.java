@@ -0,0 +1,269 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionFunction;
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.JdbcSupport.UncheckedSQLException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit of small transactions submitted by concurrent writers. A single committer thread collects the
+ * transactions submitted within a short time window (starting at the first one), runs them one after the other
+ * over its own connection, and commits them all at once. So the cost of a durable commit (typically a disk sync) is shared
+ * by the whole group.
+ * <p>
+ * Each transaction runs after a savepoint, so a failing transaction is rolled back to its savepoint without affecting
+ * the others in the group. The future of a transaction only completes once the group has been committed (or has
+ * failed to commit). Transactions in the same group see each other's changes, so they should be independent.
+ * Exceptions are reported as {@link UncheckedSQLException}s, like in {@link JdbcSupport#toFunction}.
+ *
+ * @author Chris de Vreeze
+ */
+public final class GroupCommitter implements AutoCloseable {
+
+    /**
+     * Group commit options. With a zero time window, a group consists of the transactions submitted while the previous
+     * group was being committed, which adds no latency. A longer window yields larger groups, which only pays off if
+     * a commit (disk sync) takes longer than the window.
+     */
+    public record Options(Duration window, int maxGroupSize) {
+
+        public Options {
+            if (window.isNegative()) {
+                throw new IllegalArgumentException("The time window must not be negative");
+            }
+            if (maxGroupSize <= 0) {
+                throw new IllegalArgumentException("Max group size must be positive");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(Duration.ZERO, 256);
+        }
+    }
+
+    /**
+     * Group commit metrics. Only the transactions of committed groups are counted, either as committed or as failed
+     * (rolled back to their savepoint). The transactions of a group that failed to commit are not counted.
+     */
+    public record Metrics(long transactions, long failedTransactions, long commits, long failedCommits) {
+
+        public double averageGroupSize() {
+            return (commits == 0) ? 0.0 : (transactions + failedTransactions) / (double) commits;
+        }
+    }
+
+    private record Transaction<R>(ConnectionFunction<R> function, CompletableFuture<R> result) {
+
+        /**
+         * Runs the transaction, adding its completion (to be run after commit) to the given list, and returning
+         * false if the transaction failed (and has been rolled back to its savepoint).
+         */
+        boolean run(Connection conn, List<Runnable> completions) {
+            Savepoint savepoint = null;
+            try {
+                savepoint = conn.setSavepoint();
+                R value = function.apply(conn);
+                conn.releaseSavepoint(savepoint);
+                completions.add(() -> result.complete(value));
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                rollbackTo(conn, savepoint, e);
+                Throwable exception = (e instanceof SQLException sqlException) ? new UncheckedSQLException(sqlException) : e;
+                // Failures are only reported after commit as well, to keep the order of completions
+                completions.add(() -> result.completeExceptionally(exception));
+                return false;
+            }
+        }
+
+        private static void rollbackTo(Connection conn, Savepoint savepoint, Exception e) {
+            if (savepoint != null) {
+                try {
+                    conn.rollback(savepoint);
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+            }
+        }
+    }
+
+    private final ConnectionSupplier connectionSupplier;
+    private final Options options;
+    private final BlockingQueue<Transaction<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean closed = false;
+    // Only used by the committer thread, which keeps the connection open between groups
+    private Connection connection;
+
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder failedTransactions = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder failedCommits = new LongAdder();
+
+    public GroupCommitter(ConnectionSupplier connectionSupplier, Options options) {
+        this.connectionSupplier = Objects.requireNonNull(connectionSupplier);
+        this.options = Objects.requireNonNull(options);
+        this.committer = new Thread(this::runCommitter, "group-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Submits the given transaction, returning a future that completes after the transaction has been committed.
+     */
+    public <R> CompletableFuture<R> submit(ConnectionFunction<R> f) {
+        if (closed) {
+            throw new RejectedExecutionException("Group committer has been closed");
+        }
+        var transaction = new Transaction<>(Objects.requireNonNull(f), new CompletableFuture<>());
+        queue.add(transaction);
+        if (closed && !committer.isAlive() && queue.remove(transaction)) {
+            // Closed concurrently, after the committer thread has drained the queue
+            transaction.result().completeExceptionally(new RejectedExecutionException("Group committer has been closed"));
+        }
+        return transaction.result();
+    }
+
+    /**
+     * Submits the given transaction, and waits until it has been committed.
+     */
+    public <R> R execute(ConnectionFunction<R> f) throws SQLException {
+        try {
+            return submit(f).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedSQLException uncheckedSQLException) {
+                throw (SQLException) uncheckedSQLException.getCause();
+            } else if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("Transaction failed", e.getCause());
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(transactions.sum(), failedTransactions.sum(), commits.sum(), failedCommits.sum());
+    }
+
+    /**
+     * Commits the transactions that have already been submitted, and stops the committer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runCommitter() {
+        List<Transaction<?>> group = new ArrayList<>(options.maxGroupSize());
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Transaction<?> first = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + options.window().toNanos();
+                while (group.size() < options.maxGroupSize()) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    Transaction<?> next = (remainingNanos <= 0) ? queue.poll() : queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                commitGroup(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeConnection(null);
+            var exception = new RejectedExecutionException("Group committer has been stopped");
+            group.forEach(transaction -> transaction.result().completeExceptionally(exception));
+            queue.forEach(transaction -> transaction.result().completeExceptionally(exception));
+        }
+    }
+
+    private void commitGroup(List<Transaction<?>> group) {
+        List<Runnable> completions = new ArrayList<>(group.size());
+        try {
+            Connection conn = connection();
+            int failed = 0;
+            for (Transaction<?> transaction : group) {
+                if (!transaction.run(conn, completions)) {
+                    failed++;
+                }
+            }
+            conn.commit();
+            transactions.add(group.size() - failed);
+            failedTransactions.add(failed);
+            commits.increment();
+            completions.forEach(Runnable::run);
+        } catch (SQLException | RuntimeException e) {
+            failedCommits.increment();
+            // The connection may be broken, so a new one is used for the next group
+            closeConnection(e);
+            Throwable exception = (e instanceof SQLException sqlException) ? new UncheckedSQLException(sqlException) : e;
+            group.forEach(transaction -> transaction.result().completeExceptionally(exception));
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null) {
+            Connection conn = connectionSupplier.get();
+            conn.setAutoCommit(false);
+            connection = conn;
+        }
+        return connection;
+    }
+
+    private void closeConnection(Exception e) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+                connection.close();
+            } catch (SQLException closeException) {
+                if (e != null) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            connection = null;
+        }
+    }
+}
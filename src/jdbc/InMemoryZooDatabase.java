@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Private in-memory ("jdbc:hsqldb:mem:") copy of the "Zoo" HSQL database, for tests and benchmarks that should not pay
+ * for the disk I/O of the file-backed database created by {@link SetupDatabase}. The schema (tables and stored
+ * procedures) is created directly, and the data is loaded from a binary {@link ZooSnapshot} file.
+ * <p>
+ * The database is a {@link ConnectionSupplier}, handing out pooled connections that have been opened and warmed up
+ * (by running a query against both tables) before the database is returned. Each instance has a database of its
+ * own, which lives until the instance is closed.
+ *
+ * @author Chris de Vreeze
+ */
+public final class InMemoryZooDatabase implements ConnectionSupplier, AutoCloseable {
+
+    public record Options(int poolSize, int warmConnections) {
+
+        public Options {
+            if (warmConnections < 0 || warmConnections > poolSize) {
+                throw new IllegalArgumentException("Warm connections must be between 0 and the pool size");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(Math.max(4, Runtime.getRuntime().availableProcessors()), 2);
+        }
+    }
+
+    private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+    private final String url;
+    private final ZooSnapshot.Counts counts;
+    private final Connection owner;
+    private final ConnectionPool pool;
+
+    private InMemoryZooDatabase(String url, ZooSnapshot.Counts counts, Connection owner, ConnectionPool pool) {
+        this.url = url;
+        this.counts = counts;
+        this.owner = owner;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a new in-memory database, with the schema of the "Zoo" database and the data of the given snapshot file.
+     */
+    public static InMemoryZooDatabase open(Path snapshotFile, Options options) throws SQLException {
+        Objects.requireNonNull(snapshotFile);
+        Objects.requireNonNull(options);
+        String url = "jdbc:hsqldb:mem:zoo-" + DATABASE_COUNTER.incrementAndGet();
+        // The in-memory database exists as long as it has not been shut down, so the owner connection is kept open
+        Connection owner = DriverManager.getConnection(url);
+        try {
+            SetupDatabase.createTables(owner);
+            SetupDatabase.createStoredProcedures(owner);
+            ZooSnapshot.Counts counts = ZooSnapshot.load(snapshotFile, owner);
+
+            var pool = new ConnectionPool(() -> DriverManager.getConnection(url), ConnectionPool.Config.withMaxSize(options.poolSize()));
+            warmUp(pool, options.warmConnections());
+            return new InMemoryZooDatabase(url, counts, owner, pool);
+        } catch (SQLException | RuntimeException e) {
+            shutdown(owner, e);
+            throw e;
+        }
+    }
+
+    public static InMemoryZooDatabase open(Path snapshotFile) throws SQLException {
+        return open(snapshotFile, Options.defaults());
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public ZooSnapshot.Counts counts() {
+        return counts;
+    }
+
+    /**
+     * Borrows a connection from the pool of this database. Closing it returns it to the pool.
+     */
+    @Override
+    public Connection get() throws SQLException {
+        return pool.get();
+    }
+
+    public ConnectionPool.Metrics poolMetrics() {
+        return pool.metrics();
+    }
+
+    /**
+     * Closes the connection pool, and shuts down the in-memory database, discarding its data.
+     */
+    @Override
+    public void close() {
+        pool.close();
+        shutdown(owner, null);
+    }
+
+    private static void warmUp(ConnectionPool pool, int warmConnections) throws SQLException {
+        // All connections are borrowed at the same time, so that the pool has to open them all
+        List<Connection> connections = new ArrayList<>(warmConnections);
+        try {
+            for (int i = 0; i < warmConnections; i++) {
+                Connection conn = pool.get();
+                connections.add(conn);
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT COUNT(*) FROM names n JOIN exhibits e ON n.species_id = e.id");
+                     ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                }
+            }
+        } finally {
+            for (Connection conn : connections) {
+                conn.close();
+            }
+        }
+    }
+
+    private static void shutdown(Connection owner, Exception e) {
+        try (Statement stmt = owner.createStatement()) {
+            stmt.execute("SHUTDOWN");
+        } catch (SQLException shutdownException) {
+            if (e != null) {
+                e.addSuppressed(shutdownException);
+            }
+        } finally {
+            try {
+                owner.close();
+            } catch (SQLException closeException) {
+                if (e != null) {
+                    e.addSuppressed(closeException);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Example comparing the setup of a file-backed "Zoo" database (DDL and inserts, like {@link SetupDatabase}, but with
+ * generated data) with the setup of an {@link InMemoryZooDatabase} from a binary {@link ZooSnapshot}.
+ * <p>
+ * The program takes an optional number of generated names (default 200,000) as program argument. It only uses a
+ * temporary directory, so it does not touch the "Zoo" database in the working directory.
+ *
+ * @author Chris de Vreeze
+ */
+public class InMemoryZooDatabaseExample {
+
+    public static void main(String[] args) throws SQLException, IOException {
+        int numberOfNames = (args.length == 0) ? 200_000 : Integer.parseInt(args[0]);
+        var scale = ZooDataGenerator.Scale.ofNames(numberOfNames);
+
+        Path tempDir = Files.createTempDirectory("zoo");
+        try {
+            String fileUrl = "jdbc:hsqldb:file:" + tempDir.resolve("zoo");
+            Path snapshotFile = tempDir.resolve("zoo-snapshot.bin");
+
+            long start = System.nanoTime();
+            try (Connection conn = DriverManager.getConnection(fileUrl)) {
+                SetupDatabase.createTables(conn);
+                SetupDatabase.createStoredProcedures(conn);
+                new ZooDataGenerator(42).populate(() -> DriverManager.getConnection(fileUrl), scale, 4);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SHUTDOWN");
+                }
+            }
+            System.out.printf("File-backed setup (DDL and inserts):    %6d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            ZooSnapshot.Counts counts;
+            try (Connection conn = DriverManager.getConnection(fileUrl + ";shutdown=true")) {
+                start = System.nanoTime();
+                counts = ZooSnapshot.write(conn, snapshotFile);
+            }
+            System.out.printf(
+                    "Snapshot written:                       %6d ms (%s, %d bytes)%n",
+                    (System.nanoTime() - start) / 1_000_000,
+                    counts,
+                    Files.size(snapshotFile));
+
+            for (int run = 1; run <= 5; run++) {
+                start = System.nanoTime();
+                try (var database = InMemoryZooDatabase.open(snapshotFile)) {
+                    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                    try (Connection conn = database.get();
+                         var invoker = new StoredProcedureInvoker(conn, 4)) {
+                        System.out.printf(
+                                "In-memory setup from snapshot (run %d):  %6d ms (%d exhibits, %d names, %d names starting with 'e', magic number %d)%n",
+                                run,
+                                elapsedMillis,
+                                count(conn, "SELECT COUNT(*) FROM exhibits"),
+                                count(conn, "SELECT COUNT(*) FROM names"),
+                                invoker.queryList(ZooProcedures.READ_E_NAMES, null).size(),
+                                invoker.call(ZooProcedures.MAGIC_NUMBER, null));
+                    }
+                    System.out.printf("Connection pool: %s%n", database.poolMetrics());
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(tempDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcInstrumentation.StatementStats;
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.query;
+import static jdbc.JdbcSupport.toConsumer;
+
+/**
+ * Runs a mix of queries and stored procedure calls against the "Zoo" HSQL database from multiple threads over
+ * instrumented connections, and prints the statistics per SQL text, exported periodically with
+ * {@link JdbcInstrumentation#snapshotAndReset()}. Program {@link SetupDatabase} must have been run first.
+ *
+ * @author Chris de Vreeze
+ */
+public class InstrumentationExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int NUMBER_OF_THREADS = 4;
+
+    private static void runWorkload(Connection conn, int iterations) throws SQLException {
+        for (int i = 0; i < iterations; i++) {
+            int id = 1 + i % 5;
+            try (Stream<String> names = query("SELECT name FROM names WHERE id = ?", ps -> ps.setInt(1, id), rs -> rs.getString(1)).apply(conn)) {
+                names.forEach(name -> {
+                });
+            }
+            try (Stream<String> names = query("SELECT n.name FROM names n JOIN exhibits e ON n.species_id = e.id", rs -> rs.getString(1)).apply(conn)) {
+                names.forEach(name -> {
+                });
+            }
+            try (CallableStatement cs = conn.prepareCall("{call read_names_by_letter(?)}")) {
+                cs.setString(1, (i % 2 == 0) ? "e" : "z");
+                cs.execute();
+                try (ResultSet rs = cs.getResultSet()) {
+                    while (rs != null && rs.next()) {
+                        rs.getString("name");
+                    }
+                }
+            }
+            if (i % 100 == 0) {
+                try (var stmt = conn.createStatement()) {
+                    stmt.executeQuery("SELECT no_such_column FROM names");
+                } catch (SQLException e) {
+                    // Expected, and counted as error
+                }
+            }
+        }
+    }
+
+    private static void print(List<StatementStats> statistics) {
+        for (StatementStats stats : statistics) {
+            System.out.printf(
+                    "\t%-70.70s n %7d, err %4d, rows %8d, mean %7.3f ms, p50 %7.3f ms, p99 %7.3f ms, max %7.3f ms%n",
+                    stats.sql(),
+                    stats.executions(),
+                    stats.errors(),
+                    stats.rows(),
+                    stats.meanMillis(),
+                    stats.percentileMillis(50),
+                    stats.percentileMillis(99),
+                    stats.maxNanos() / 1_000_000.0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length == 0) ? 10_000 : Integer.parseInt(args[0]);
+        var instrumentation = new JdbcInstrumentation();
+        ConnectionSupplier connectionSupplier = instrumentation.instrument(() -> DriverManager.getConnection(JDBC_URL));
+
+        for (int round = 1; round <= 2; round++) {
+            ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+            try {
+                for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+                    executorService.execute(() -> toConsumer((ConnectionSupplier cs) -> {
+                        try (Connection conn = cs.get()) {
+                            runWorkload(conn, iterations);
+                        }
+                    }).accept(connectionSupplier));
+                }
+            } finally {
+                executorService.shutdown();
+            }
+            if (!executorService.awaitTermination(10, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Workload did not finish in time");
+            }
+            System.out.printf("Round %d:%n", round);
+            print(instrumentation.snapshotAndReset());
+        }
+    }
+}
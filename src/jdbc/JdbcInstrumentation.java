@@ -0,0 +1,405 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionFunction;
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of JDBC statements, recording per SQL text the number of executions, errors and rows, and a latency
+ * histogram. Connections are wrapped in dynamic proxies, which in turn wrap the statements and result sets created
+ * through them. The latency of a query only covers statement execution, and not the iteration over the result set.
+ * <p>
+ * All counters are striped ({@link LongAdder}), so that threads running the same statement hardly contend. The
+ * histograms are log-bucketed, in the style of HDR histograms: each power of 2 is split into 8 linear sub-buckets,
+ * so recorded values are accurate to within 12.5%. Buckets are allocated lazily, so only the latency ranges actually
+ * seen take memory.
+ * <p>
+ * Typical use is to instrument a ConnectionSupplier or ConnectionFunction once, and periodically export
+ * {@link #snapshotAndReset()}.
+ *
+ * @author Chris de Vreeze
+ */
+public final class JdbcInstrumentation {
+
+    /**
+     * Immutable snapshot of a latency histogram, with latencies in nanoseconds.
+     */
+    public record HistogramSnapshot(long[] bucketCounts) {
+
+        public HistogramSnapshot {
+            bucketCounts = bucketCounts.clone();
+        }
+
+        /**
+         * Returns a copy of the bucket counts, so that the snapshot cannot be changed.
+         */
+        @Override
+        public long[] bucketCounts() {
+            return bucketCounts.clone();
+        }
+
+        public long count() {
+            long count = 0;
+            for (long bucketCount : bucketCounts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        /**
+         * Returns the (upper bound of the bucket of the) value at the given percentile, or 0 if the histogram is empty.
+         */
+        public long valueAtPercentile(double percentile) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return LatencyHistogram.upperBound(i);
+                }
+            }
+            return LatencyHistogram.upperBound(bucketCounts.length - 1);
+        }
+
+        // Compared by content, and not by array identity like the generated record methods would do
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof HistogramSnapshot that && Arrays.equals(bucketCounts, that.bucketCounts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bucketCounts);
+        }
+
+        @Override
+        public String toString() {
+            return "HistogramSnapshot[bucketCounts=" + Arrays.toString(bucketCounts) + "]";
+        }
+    }
+
+    public record StatementStats(
+            String sql,
+            long executions,
+            long errors,
+            long rows,
+            long totalNanos,
+            long maxNanos,
+            HistogramSnapshot latencies) {
+
+        public double meanMillis() {
+            return (executions == 0) ? 0.0 : totalNanos / (executions * 1_000_000.0);
+        }
+
+        public double percentileMillis(double percentile) {
+            return latencies.valueAtPercentile(percentile) / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Concurrent log-bucketed histogram of non-negative long values, with striped bucket counters.
+     */
+    private static final class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+
+        void record(long value) {
+            int index = bucketIndex(Math.max(0, value));
+            LongAdder bucket = buckets.get(index);
+            if (bucket == null) {
+                buckets.compareAndSet(index, null, new LongAdder());
+                bucket = buckets.get(index);
+            }
+            bucket.increment();
+        }
+
+        HistogramSnapshot snapshot(boolean reset) {
+            long[] counts = new long[BUCKET_COUNT];
+            int length = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                LongAdder bucket = buckets.get(i);
+                if (bucket != null) {
+                    counts[i] = reset ? bucket.sumThenReset() : bucket.sum();
+                    if (counts[i] != 0) {
+                        length = i + 1;
+                    }
+                }
+            }
+            return new HistogramSnapshot(Arrays.copyOf(counts, length));
+        }
+
+        static int bucketIndex(long value) {
+            int highestBit = 63 - Long.numberOfLeadingZeros(value | 1);
+            if (highestBit < SUB_BUCKET_BITS) {
+                return (int) value;
+            }
+            int shift = highestBit - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index >>> SUB_BUCKET_BITS) - 1;
+            long lowerBound = ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+            return lowerBound + (1L << shift) - 1;
+        }
+    }
+
+    private static final class StatementMetrics {
+
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        void recordExecution(long nanos, boolean failed) {
+            executions.increment();
+            if (failed) {
+                errors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            latencies.record(nanos);
+        }
+
+        StatementStats snapshot(String sql, boolean reset) {
+            if (reset) {
+                return new StatementStats(
+                        sql,
+                        executions.sumThenReset(),
+                        errors.sumThenReset(),
+                        rows.sumThenReset(),
+                        totalNanos.sumThenReset(),
+                        maxNanos.getThenReset(),
+                        latencies.snapshot(true));
+            }
+            return new StatementStats(
+                    sql,
+                    executions.sum(),
+                    errors.sum(),
+                    rows.sum(),
+                    totalNanos.sum(),
+                    maxNanos.get(),
+                    latencies.snapshot(false));
+        }
+    }
+
+    // SQL text used for batches of plain statements, which may contain different SQL texts
+    private static final String STATEMENT_BATCH = "<statement batch>";
+
+    private final ConcurrentMap<String, StatementMetrics> metricsBySql = new ConcurrentHashMap<>();
+
+    /**
+     * Returns an instrumented proxy of the connection. Closing the proxy closes the connection.
+     */
+    public Connection instrument(Connection conn) {
+        return proxy(Connection.class, conn, new ConnectionHandler(conn));
+    }
+
+    public ConnectionSupplier instrument(ConnectionSupplier connectionSupplier) {
+        return () -> instrument(connectionSupplier.get());
+    }
+
+    /**
+     * Returns a ConnectionFunction that runs the given function against an instrumented proxy of the connection.
+     */
+    public <R> ConnectionFunction<R> instrument(ConnectionFunction<R> f) {
+        return conn -> f.apply(instrument(conn));
+    }
+
+    /**
+     * Returns the statistics per SQL text, slowest (in total time) first.
+     */
+    public List<StatementStats> snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Like {@link #snapshot()}, but resetting all counters, which is convenient for periodic export. Executions that
+     * run concurrently with this method are counted either in this snapshot or in the next one, but may be split over
+     * both of them (e.g. the execution in one snapshot and its rows in the next).
+     */
+    public List<StatementStats> snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * Removes all statistics. Executions that run concurrently with this method may get lost.
+     */
+    public void reset() {
+        metricsBySql.clear();
+    }
+
+    private List<StatementStats> snapshot(boolean reset) {
+        return metricsBySql.entrySet().stream()
+                .map(kv -> kv.getValue().snapshot(kv.getKey(), reset))
+                .filter(stats -> stats.executions() > 0 || stats.rows() > 0)
+                .sorted(Comparator.comparingLong(StatementStats::totalNanos).reversed())
+                .toList();
+    }
+
+    private StatementMetrics metrics(String sql) {
+        StatementMetrics metrics = metricsBySql.get(sql);
+        return (metrics != null) ? metrics : metricsBySql.computeIfAbsent(sql, s -> new StatementMetrics());
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection conn;
+
+        ConnectionHandler(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = invokeUnwrapped(conn, method, args);
+            return switch (method.getName()) {
+                case "createStatement" -> proxy(Statement.class, result, new StatementHandler((Statement) result, null));
+                case "prepareStatement" ->
+                        proxy(PreparedStatement.class, result, new StatementHandler((Statement) result, (String) args[0]));
+                case "prepareCall" ->
+                        proxy(CallableStatement.class, result, new StatementHandler((Statement) result, (String) args[0]));
+                default -> result;
+            };
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String preparedSql;
+        // The last executed SQL text, to which the rows of "getResultSet" are attributed
+        private volatile String lastSql;
+
+        StatementHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.equals("getResultSet")) {
+                String sql = (lastSql != null) ? lastSql : sqlOf(args);
+                return countingRows(invokeUnwrapped(statement, method, args), metrics(sql));
+            }
+            if (!methodName.startsWith("execute")) {
+                return invokeUnwrapped(statement, method, args);
+            }
+
+            String sql = sqlOf(args);
+            lastSql = sql;
+            StatementMetrics metrics = metrics(sql);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = invokeUnwrapped(statement, method, args);
+                failed = false;
+                addRows(result, metrics);
+                return countingRows(result, metrics);
+            } finally {
+                metrics.recordExecution(System.nanoTime() - start, failed);
+            }
+        }
+
+        private String sqlOf(Object[] args) {
+            if (args != null && args.length > 0 && args[0] instanceof String sql) {
+                return sql;
+            }
+            return (preparedSql != null) ? preparedSql : STATEMENT_BATCH;
+        }
+    }
+
+    private static void addRows(Object result, StatementMetrics metrics) {
+        if (result instanceof Integer updateCount) {
+            metrics.rows.add(Math.max(0, updateCount));
+        } else if (result instanceof Long updateCount) {
+            metrics.rows.add(Math.max(0, updateCount));
+        } else if (result instanceof int[] updateCounts) {
+            for (int updateCount : updateCounts) {
+                metrics.rows.add(Math.max(0, updateCount));
+            }
+        } else if (result instanceof long[] updateCounts) {
+            for (long updateCount : updateCounts) {
+                metrics.rows.add(Math.max(0, updateCount));
+            }
+        }
+    }
+
+    private static Object countingRows(Object result, StatementMetrics metrics) {
+        if (!(result instanceof ResultSet rs)) {
+            return result;
+        }
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object value = invokeUnwrapped(rs, method, args);
+            if (method.getName().equals("next") && Boolean.TRUE.equals(value)) {
+                metrics.rows.increment();
+            }
+            return value;
+        };
+        return proxy(ResultSet.class, rs, handler);
+    }
+
+    private static Object invokeUnwrapped(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> interfaceType, Object target, InvocationHandler handler) {
+        if (target == null) {
+            return null;
+        }
+        return (T) Proxy.newProxyInstance(JdbcInstrumentation.class.getClassLoader(), new Class<?>[]{interfaceType}, handler);
+    }
+}
@@ -16,14 +16,30 @@
 
 package jdbc;
 
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * JDBC support class, to make the use of JDBC more friendly through wrapping of checked SQLException instances.
@@ -32,6 +48,17 @@ import java.util.function.Supplier;
  */
 public class JdbcSupport {
 
+    public static final int DEFAULT_FETCH_SIZE = 1_000;
+
+    private static final Pattern WRITTEN_TABLE =
+            Pattern.compile("^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|MERGE\\s+INTO)\\s+([\\w.\"]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final List<TableWriteListener> tableWriteListeners = new CopyOnWriteArrayList<>();
+
+    // Tables written in the transactions started by "inTransaction", per connection (compared by identity)
+    private static final Map<Connection, Set<String>> tablesWrittenInTransaction =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
     private JdbcSupport() {
     }
 
@@ -64,6 +91,10 @@ public class JdbcSupport {
     public interface PreparedStatementFunction<R> extends JdbcFunction<PreparedStatement, R> {
     }
 
+    @FunctionalInterface
+    public interface CallableStatementFunction<R> extends JdbcFunction<CallableStatement, R> {
+    }
+
     @FunctionalInterface
     public interface ResultSetFunction<R> extends JdbcFunction<ResultSet, R> {
     }
@@ -88,6 +119,22 @@ public class JdbcSupport {
     public interface ConnectionConsumer extends JdbcConsumer<Connection> {
     }
 
+    @FunctionalInterface
+    public interface StatementBinder<T> {
+
+        void bind(PreparedStatement ps, T value) throws SQLException;
+    }
+
+    /**
+     * Listener to writes made through the {@link #update} and {@link #batchInsert} helpers, such as a {@link QueryCache}
+     * that must invalidate results depending on the written table. Tables are passed in upper case, without quotes.
+     */
+    @FunctionalInterface
+    public interface TableWriteListener {
+
+        void tableWritten(String table);
+    }
+
     // Conversion functions
 
     public static <T, R> Function<T, R> toFunction(JdbcFunction<T, R> f) {
@@ -135,4 +182,256 @@ public class JdbcSupport {
             }
         };
     }
+
+    // Table write listeners
+
+    /**
+     * Adds a listener that is notified of each table written through {@link #update} or {@link #batchInsert}, once the
+     * write has been executed. Tables written in a transaction of {@link #inTransaction} are notified once more after
+     * the transaction has been committed or rolled back, because results read in the meantime may be stale.
+     */
+    public static void addTableWriteListener(TableWriteListener listener) {
+        tableWriteListeners.add(Objects.requireNonNull(listener));
+    }
+
+    public static void removeTableWriteListener(TableWriteListener listener) {
+        tableWriteListeners.remove(listener);
+    }
+
+    /**
+     * Returns the (upper-case) table written by the given insert, update, delete or merge statement, if found.
+     */
+    public static Optional<String> writtenTable(String sql) {
+        Matcher matcher = WRITTEN_TABLE.matcher(sql);
+        return matcher.find() ? Optional.of(normalizeTable(matcher.group(1))) : Optional.empty();
+    }
+
+    static String normalizeTable(String table) {
+        return table.replace("\"", "").toUpperCase(Locale.ROOT);
+    }
+
+    private static void notifyTableWritten(Connection conn, String sql) {
+        writtenTable(sql).ifPresent(table -> {
+            Set<String> tables = tablesWrittenInTransaction.get(conn);
+            if (tables != null) {
+                tables.add(table);
+            }
+            tableWriteListeners.forEach(listener -> listener.tableWritten(table));
+        });
+    }
+
+    private static void notifyTransactionEnded(Connection conn) {
+        Set<String> tables = tablesWrittenInTransaction.remove(conn);
+        if (tables != null) {
+            tables.forEach(table -> tableWriteListeners.forEach(listener -> listener.tableWritten(table)));
+        }
+    }
+
+    // Transactions
+
+    /**
+     * Returns a ConnectionFunction that runs the given function in a transaction, committing it if the function
+     * succeeds, and rolling it back if the function throws an exception (e.g. an {@link UncheckedSQLException}).
+     * Auto-commit mode is restored afterwards. If the connection is already in a transaction (auto-commit is off),
+     * the function just joins it, leaving commit or rollback to the code that started that transaction.
+     */
+    public static <R> ConnectionFunction<R> inTransaction(ConnectionFunction<R> f) {
+        return conn -> {
+            if (!conn.getAutoCommit()) {
+                return f.apply(conn);
+            }
+            conn.setAutoCommit(false);
+            tablesWrittenInTransaction.put(conn, Collections.synchronizedSet(new LinkedHashSet<>()));
+            try {
+                R result = f.apply(conn);
+                conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw e;
+            } finally {
+                try {
+                    conn.setAutoCommit(true);
+                } finally {
+                    notifyTransactionEnded(conn);
+                }
+            }
+        };
+    }
+
+    /**
+     * Like {@link #inTransaction(ConnectionFunction)}, but for a ConnectionConsumer. It has another name, because
+     * overloading would make lambda expressions like "conn -> stmt.executeUpdate()" ambiguous.
+     */
+    public static ConnectionConsumer runInTransaction(ConnectionConsumer c) {
+        ConnectionFunction<Void> f = inTransaction(conn -> {
+            c.accept(conn);
+            return null;
+        });
+        return f::apply;
+    }
+
+    // Statement caching
+
+    /**
+     * Returns a ConnectionFunction that runs the given function against a {@link StatementCache}. For a connection
+     * borrowed from a {@link ConnectionPool}, that is the cache of the pooled physical connection (see
+     * {@link StatementCache#ofPooledConnection}), so later calls reuse its statements. For other connections, it is a
+     * new cache that is closed afterwards, so statements are only reused within the call.
+     */
+    public static <R> ConnectionFunction<R> withStatementCache(int maxSize, JdbcFunction<StatementCache, R> f) {
+        return conn -> {
+            Optional<StatementCache> pooledCache = StatementCache.ofPooledConnection(conn, maxSize);
+            if (pooledCache.isPresent()) {
+                return f.apply(pooledCache.get());
+            }
+            try (StatementCache statementCache = new StatementCache(conn, maxSize)) {
+                return f.apply(statementCache);
+            }
+        };
+    }
+
+    // Updates
+
+    /**
+     * Returns a ConnectionFunction that prepares and executes the given insert, update or delete statement, returning
+     * the update count. The {@link TableWriteListener}s are notified of the written table afterwards.
+     */
+    public static ConnectionFunction<Integer> update(String sql, JdbcConsumer<PreparedStatement> parameterBinder) {
+        return conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                parameterBinder.accept(ps);
+                return ps.executeUpdate();
+            } finally {
+                // Also after failure, because part of the write may have been executed
+                notifyTableWritten(conn, sql);
+            }
+        };
+    }
+
+    // Batch inserts
+
+    /**
+     * Returns a ConnectionFunction that writes all rows of the stream through the given SQL (typically an insert
+     * statement), using JDBC batches and chunked transactions (see {@link BatchWriter}). The {@link TableWriteListener}s
+     * are notified of the written table afterwards.
+     */
+    public static <T> ConnectionFunction<BatchWriter.Result> batchInsert(
+            String sql,
+            StatementBinder<T> binder,
+            BatchWriter.Options options,
+            Stream<T> rows) {
+        return conn -> {
+            try (var writer = new BatchWriter<>(conn, sql, binder, options)) {
+                rows.forEachOrdered(toConsumer(writer::add));
+                return writer.finish();
+            } catch (UncheckedSQLException e) {
+                throw (SQLException) e.getCause();
+            } finally {
+                notifyTableWritten(conn, sql);
+            }
+        };
+    }
+
+    // Streaming query results
+
+    /**
+     * Returns a lazy ordered stream of the rows of the given ResultSet, mapped by the given row mapper. Rows are
+     * fetched from the ResultSet only as the stream is consumed. Closing the stream closes the ResultSet, so the
+     * stream should be used in a try-with-resources statement.
+     */
+    public static <R> Stream<R> stream(ResultSet rs, ResultSetFunction<R> rowMapper) {
+        Objects.requireNonNull(rs);
+        Objects.requireNonNull(rowMapper);
+        return StreamSupport.stream(new ResultSetSpliterator<>(rs, rowMapper), false)
+                .onClose(() -> toConsumer(ResultSet::close).accept(rs));
+    }
+
+    /**
+     * Returns a ConnectionFunction that prepares and executes the query, and returns the result as lazy stream.
+     * The fetch size is a hint to the JDBC driver for the number of rows to fetch per round-trip, so large results
+     * can be streamed in constant memory. Closing the stream closes both the ResultSet and the PreparedStatement.
+     */
+    public static <R> ConnectionFunction<Stream<R>> query(
+            String sql,
+            JdbcConsumer<PreparedStatement> parameterBinder,
+            int fetchSize,
+            ResultSetFunction<R> rowMapper) {
+        return conn -> {
+            PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                ps.setFetchSize(fetchSize);
+                parameterBinder.accept(ps);
+                ResultSet rs = ps.executeQuery();
+                return stream(rs, rowMapper).onClose(() -> toConsumer(PreparedStatement::close).accept(ps));
+            } catch (SQLException | RuntimeException e) {
+                ps.close();
+                throw e;
+            }
+        };
+    }
+
+    public static <R> ConnectionFunction<Stream<R>> query(
+            String sql,
+            JdbcConsumer<PreparedStatement> parameterBinder,
+            ResultSetFunction<R> rowMapper) {
+        return query(sql, parameterBinder, DEFAULT_FETCH_SIZE, rowMapper);
+    }
+
+    public static <R> ConnectionFunction<Stream<R>> query(String sql, ResultSetFunction<R> rowMapper) {
+        return query(sql, ps -> {
+        }, DEFAULT_FETCH_SIZE, rowMapper);
+    }
+
+    // Keyset pagination
+
+    /**
+     * Returns a lazy ordered stream of the (mapped) rows of the table, in key order. The rows are fetched page by page,
+     * each page continuing after the last key of the previous one, over a connection of the given supplier. The next
+     * page is prefetched on a background thread, if so configured. See {@link KeysetScanner} for details. Closing
+     * the stream releases the connection, so the stream should be used in a try-with-resources statement.
+     */
+    public static <R> Stream<R> keysetScan(
+            ConnectionSupplier connectionSupplier,
+            String table,
+            String keyColumn,
+            String columns,
+            KeysetScanner.Options options,
+            ResultSetFunction<R> rowMapper) {
+        return new KeysetScanner<>(connectionSupplier, table, keyColumn, columns, options, rowMapper).stream();
+    }
+
+    private static final class ResultSetSpliterator<R> extends Spliterators.AbstractSpliterator<R> {
+
+        private final ResultSet rs;
+        private final ResultSetFunction<R> rowMapper;
+        private boolean exhausted = false;
+
+        ResultSetSpliterator(ResultSet rs, ResultSetFunction<R> rowMapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.rs = rs;
+            this.rowMapper = rowMapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super R> action) {
+            if (exhausted) {
+                return false;
+            }
+            try {
+                if (!rs.next()) {
+                    exhausted = true;
+                    return false;
+                }
+                action.accept(rowMapper.apply(rs));
+                return true;
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        }
+    }
 }
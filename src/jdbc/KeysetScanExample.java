@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.keysetScan;
+
+/**
+ * Compares scanning the "names" table of the "Zoo" HSQL database page by page with OFFSET pagination and with keyset
+ * pagination (see {@link KeysetScanner}), with and without prefetching the next page. Each row gets some simulated
+ * processing work, which prefetching overlaps with fetching the next page.
+ * <p>
+ * Program {@link SetupDatabase} must have been run first. The program first adds generated rows (see
+ * {@link ZooDataGenerator}), and deletes them again at the end. It takes an optional number of rows (default 200,000)
+ * as program argument.
+ *
+ * @author Chris de Vreeze
+ */
+public class KeysetScanExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int FIRST_ID = 1_000;
+
+    private static final int PAGE_SIZE = 1_000;
+
+    private record Name(int id, String name) {
+    }
+
+    private static long process(Name name) {
+        // Simulated work per row
+        long hash = name.id();
+        for (int i = 0; i < 2_000; i++) {
+            hash = hash * 31 + name.name().charAt(i % name.name().length());
+        }
+        return hash;
+    }
+
+    private static long scanWithOffset(Connection conn) throws SQLException {
+        String sql = "SELECT id, name FROM names ORDER BY id OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+        long checksum = 0;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int offset = 0; ; offset += PAGE_SIZE) {
+                ps.setInt(1, offset);
+                ps.setInt(2, PAGE_SIZE);
+                int rows = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        checksum += process(new Name(rs.getInt(1), rs.getString(2)));
+                        rows += 1;
+                    }
+                }
+                if (rows < PAGE_SIZE) {
+                    return checksum;
+                }
+            }
+        }
+    }
+
+    private static long scanWithKeyset(ConnectionSupplier connectionSupplier, boolean prefetch) {
+        var options = new KeysetScanner.Options(PAGE_SIZE, prefetch);
+        try (Stream<Name> names = keysetScan(
+                connectionSupplier, "names", "id", "id, name", options, rs -> new Name(rs.getInt(1), rs.getString(2)))) {
+            return names.mapToLong(KeysetScanExample::process).sum();
+        }
+    }
+
+    private static void deleteInsertedRows(Connection conn) throws SQLException {
+        for (String sql : List.of("DELETE FROM names WHERE id >= ?", "DELETE FROM exhibits WHERE id >= ?")) {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, FIRST_ID);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfNames = (args.length == 0) ? 200_000 : Integer.parseInt(args[0]);
+
+        ConnectionSupplier connectionSupplier = () -> DriverManager.getConnection(JDBC_URL);
+
+        try (Connection conn = connectionSupplier.get()) {
+            deleteInsertedRows(conn);
+            try {
+                new ParallelBulkLoader(connectionSupplier, 1, BatchWriter.Options.defaults())
+                        .load(new ZooDataGenerator(42).tableLoads(FIRST_ID, ZooDataGenerator.Scale.ofNames(numberOfNames)));
+
+                // Warm-up
+                scanWithKeyset(connectionSupplier, true);
+                scanWithKeyset(connectionSupplier, false);
+
+                long start = System.nanoTime();
+                long checksum = scanWithOffset(conn);
+                System.out.printf("OFFSET pagination:           %6d ms (checksum %d)%n", (System.nanoTime() - start) / 1_000_000, checksum);
+
+                start = System.nanoTime();
+                checksum = scanWithKeyset(connectionSupplier, false);
+                System.out.printf("Keyset pagination:           %6d ms (checksum %d)%n", (System.nanoTime() - start) / 1_000_000, checksum);
+
+                start = System.nanoTime();
+                checksum = scanWithKeyset(connectionSupplier, true);
+                System.out.printf("Keyset pagination, prefetch: %6d ms (checksum %d)%n", (System.nanoTime() - start) / 1_000_000, checksum);
+            } finally {
+                deleteInsertedRows(conn);
+            }
+        }
+    }
+}
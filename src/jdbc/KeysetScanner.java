@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.JdbcSupport.ResultSetFunction;
+import jdbc.JdbcSupport.UncheckedSQLException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Scanner that pages through a table by primary key ranges ("keyset pagination"), instead of using OFFSET (which gets
+ * slower with every page) or one huge result set (which may hold locks for the duration of the scan). Each page query
+ * continues after the last key of the previous page, so it is a short index range scan.
+ * <p>
+ * Pages are fetched on a background thread, over a connection of its own. With prefetching, the next page is fetched
+ * while the caller processes the current one. Rows are mapped on the background thread as well, so the row mapper must
+ * not depend on the calling thread. The result is one lazy ordered stream, which must be closed to release the
+ * connection (so use it in a try-with-resources statement).
+ * <p>
+ * The key must be a single unique, non-null column (typically the primary key), and must be one of the selected
+ * columns. The table, key column and selected columns are inserted into the SQL, so they must be trusted identifiers.
+ *
+ * @author Chris de Vreeze
+ */
+public final class KeysetScanner<R> {
+
+    public record Options(int pageSize, boolean prefetch) {
+
+        public Options {
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("Page size must be positive");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(1_000, true);
+        }
+    }
+
+    private record Page<R>(List<R> rows, Object lastKey, boolean isLast) {
+    }
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+    private static final Pattern COLUMN_LIST = Pattern.compile("\\*|[A-Za-z_][A-Za-z0-9_.]*(\\s*,\\s*[A-Za-z_][A-Za-z0-9_.]*)*");
+
+    private final ConnectionSupplier connectionSupplier;
+    private final String keyColumn;
+    // Position of the key column in the select list (1-based), or 0 if all columns are selected
+    private final int keyPosition;
+    private final String firstPageSql;
+    private final String nextPageSql;
+    private final Options options;
+    private final ResultSetFunction<R> rowMapper;
+
+    public KeysetScanner(
+            ConnectionSupplier connectionSupplier,
+            String table,
+            String keyColumn,
+            String columns,
+            Options options,
+            ResultSetFunction<R> rowMapper) {
+        this.connectionSupplier = Objects.requireNonNull(connectionSupplier);
+        this.keyColumn = requireMatch(IDENTIFIER, keyColumn);
+        String tableName = requireMatch(IDENTIFIER, table);
+        String columnList = requireMatch(COLUMN_LIST, columns);
+        this.keyPosition = keyPosition(this.keyColumn, columnList);
+        this.options = Objects.requireNonNull(options);
+        this.rowMapper = Objects.requireNonNull(rowMapper);
+
+        String select = "SELECT " + columnList + " FROM " + tableName;
+        String orderAndLimit = " ORDER BY " + keyColumn + " FETCH FIRST " + options.pageSize() + " ROWS ONLY";
+        this.firstPageSql = select + orderAndLimit;
+        this.nextPageSql = select + " WHERE " + keyColumn + " > ?" + orderAndLimit;
+    }
+
+    /**
+     * Returns the lazy stream of all (mapped) rows of the table, in key order. Each call starts a new scan.
+     */
+    public Stream<R> stream() {
+        var scan = new Scan();
+        return StreamSupport.stream(scan, false).onClose(scan::close);
+    }
+
+    private final class Scan extends Spliterators.AbstractSpliterator<R> {
+
+        private final ExecutorService executorService = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "keyset-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Only used on the background thread, and reused for all pages
+        private Connection connection;
+        private PreparedStatement firstPageStatement;
+        private PreparedStatement nextPageStatement;
+
+        private Iterator<R> currentRows = List.<R>of().iterator();
+        private Page<R> currentPage = null;
+        private CompletableFuture<Page<R>> nextPage = null;
+
+        Scan() {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super R> action) {
+            while (!currentRows.hasNext()) {
+                if (currentPage != null && currentPage.isLast()) {
+                    return false;
+                }
+                currentPage = awaitNextPage();
+                currentRows = currentPage.rows().iterator();
+            }
+            action.accept(currentRows.next());
+            return true;
+        }
+
+        private Page<R> awaitNextPage() {
+            if (nextPage == null) {
+                nextPage = fetchAsync((currentPage == null) ? null : currentPage.lastKey());
+            }
+            Page<R> page;
+            try {
+                page = nextPage.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw e;
+            } finally {
+                nextPage = null;
+            }
+            if (options.prefetch() && !page.isLast()) {
+                // Fetch the next page while the caller processes this one
+                nextPage = fetchAsync(page.lastKey());
+            }
+            return page;
+        }
+
+        private CompletableFuture<Page<R>> fetchAsync(Object afterKey) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch(afterKey);
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(e);
+                }
+            }, executorService);
+        }
+
+        private Page<R> fetch(Object afterKey) throws SQLException {
+            if (connection == null) {
+                connection = connectionSupplier.get();
+                firstPageStatement = prepare(firstPageSql);
+                nextPageStatement = prepare(nextPageSql);
+            }
+            PreparedStatement ps = (afterKey == null) ? firstPageStatement : nextPageStatement;
+            if (afterKey != null) {
+                ps.setObject(1, afterKey);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                List<R> rows = new ArrayList<>(options.pageSize());
+                Object lastKey = afterKey;
+                while (rs.next()) {
+                    // A qualified key column name (like "names.id") is not a valid column label
+                    lastKey = (keyPosition > 0) ? rs.getObject(keyPosition) : rs.getObject(unqualified(keyColumn));
+                    rows.add(rowMapper.apply(rs));
+                }
+                return new Page<>(rows, lastKey, rows.size() < options.pageSize());
+            }
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(options.pageSize());
+            return ps;
+        }
+
+        void close() {
+            // Runs after any page fetch in progress, because the executor has only one thread
+            executorService.execute(() -> {
+                if (connection != null) {
+                    // Closing the connection also closes its statements
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        // Ignore, because the scan is over anyway
+                    }
+                }
+            });
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Returns the position (1-based) of the key column in the given column list, comparing unqualified names, or 0
+     * if the column list is "*".
+     */
+    private static int keyPosition(String keyColumn, String columnList) {
+        if (columnList.equals("*")) {
+            return 0;
+        }
+        List<String> columns = Arrays.stream(columnList.split(",")).map(String::trim).toList();
+        for (int i = 0; i < columns.size(); i++) {
+            if (unqualified(columns.get(i)).equalsIgnoreCase(unqualified(keyColumn))) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Key column " + keyColumn + " is not one of the selected columns: " + columnList);
+    }
+
+    private static String unqualified(String column) {
+        return column.substring(column.lastIndexOf('.') + 1);
+    }
+
+    private static String requireMatch(Pattern pattern, String sqlPart) {
+        if (!pattern.matcher(sqlPart.trim()).matches()) {
+            throw new IllegalArgumentException("Not a valid identifier (list): " + sqlPart);
+        }
+        return sqlPart.trim();
+    }
+}
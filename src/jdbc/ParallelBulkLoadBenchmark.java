@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.ParallelBulkLoader.TableResult;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Benchmark of {@link ParallelBulkLoader}, loading generated "exhibits" and "names" rows (see {@link ZooDataGenerator})
+ * into the "Zoo" HSQL database with a growing number of connections, and reporting the scaling efficiency compared to
+ * one connection.
+ * Program {@link SetupDatabase} must have been run first. The inserted rows are deleted again after each run.
+ * <p>
+ * The program takes an optional number of "names" rows (default 1 million) as program argument. Note that
+ * scaling depends heavily on the transaction control mode of the database (LOCKS, MVLOCKS or MVCC).
+ *
+ * @author Chris de Vreeze
+ */
+public class ParallelBulkLoadBenchmark {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int FIRST_ID = 1_000;
+
+    private static void deleteInsertedRows(Connection conn) throws SQLException {
+        for (String sql : List.of("DELETE FROM names WHERE id >= ?", "DELETE FROM exhibits WHERE id >= ?")) {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, FIRST_ID);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfNames = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
+        var generator = new ZooDataGenerator(42);
+
+        ConnectionSupplier connectionSupplier = () -> DriverManager.getConnection(JDBC_URL);
+
+        try (Connection conn = connectionSupplier.get()) {
+            deleteInsertedRows(conn);
+
+            // Warm-up run, so that the single-connection baseline is not penalised by JIT compilation
+            new ParallelBulkLoader(connectionSupplier, 1, BatchWriter.Options.defaults())
+                    .load(generator.tableLoads(FIRST_ID, ZooDataGenerator.Scale.ofNames(Math.min(numberOfNames, 100_000))));
+            deleteInsertedRows(conn);
+
+            double singleConnectionRowsPerSecond = 0;
+            for (int numberOfConnections : List.of(1, 2, 4, 8)) {
+                var loader = new ParallelBulkLoader(connectionSupplier, numberOfConnections, BatchWriter.Options.defaults());
+
+                long start = System.nanoTime();
+                List<TableResult> results = loader.load(generator.tableLoads(FIRST_ID, ZooDataGenerator.Scale.ofNames(numberOfNames)));
+                long elapsedNanos = System.nanoTime() - start;
+
+                long rows = results.stream().mapToLong(TableResult::rows).sum();
+                double rowsPerSecond = rows * 1_000_000_000.0 / elapsedNanos;
+                if (numberOfConnections == 1) {
+                    singleConnectionRowsPerSecond = rowsPerSecond;
+                }
+                double efficiency = rowsPerSecond / (numberOfConnections * singleConnectionRowsPerSecond);
+
+                System.out.printf(
+                        "%d connection(s): %d rows in %d ms, %.0f rows/s, speedup %.2f, scaling efficiency %.0f%%%n",
+                        numberOfConnections,
+                        rows,
+                        elapsedNanos / 1_000_000,
+                        rowsPerSecond,
+                        rowsPerSecond / singleConnectionRowsPerSecond,
+                        efficiency * 100);
+                results.forEach(r -> System.out.printf("\tTable %s: %.0f rows/s%n", r.tableName(), r.rowsPerSecond()));
+
+                deleteInsertedRows(conn);
+            }
+        }
+    }
+}
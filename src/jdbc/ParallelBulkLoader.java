@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.JdbcSupport.StatementBinder;
+import jdbc.JdbcSupport.UncheckedSQLException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.batchInsert;
+
+/**
+ * Bulk loader that partitions the rows of each table by primary key range, and loads the partitions in parallel,
+ * each one over its own connection, using batched inserts in chunked transactions (see {@link BatchWriter}).
+ * <p>
+ * Tables are loaded one after the other, in the given order, so foreign key constraints are satisfied if referenced
+ * tables are passed before referencing tables (e.g. "exhibits" before "names"). If a partition fails, the other
+ * partitions of that table are cancelled, but rows that have already been committed are not removed.
+ *
+ * @author Chris de Vreeze
+ */
+public final class ParallelBulkLoader {
+
+    /**
+     * Source of the rows of a table with integer primary keys in the given (half-open) key range.
+     */
+    @FunctionalInterface
+    public interface RangeSource<T> {
+
+        Stream<T> rows(int fromId, int toId);
+    }
+
+    public record TableLoad<T>(
+            String tableName,
+            String insertSql,
+            StatementBinder<T> binder,
+            int fromId,
+            int toId,
+            RangeSource<T> source) {
+
+        public TableLoad {
+            Objects.requireNonNull(tableName);
+            Objects.requireNonNull(insertSql);
+            Objects.requireNonNull(binder);
+            Objects.requireNonNull(source);
+            if (fromId > toId) {
+                throw new IllegalArgumentException("Empty or negative key range for table " + tableName);
+            }
+        }
+    }
+
+    public record TableResult(String tableName, int partitions, long rows, long elapsedNanos) {
+
+        public double rowsPerSecond() {
+            return (elapsedNanos == 0) ? 0.0 : rows * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+
+    private record KeyRange(int fromId, int toId) {
+    }
+
+    private final ConnectionSupplier connectionSupplier;
+    private final int numberOfConnections;
+    private final BatchWriter.Options batchOptions;
+
+    public ParallelBulkLoader(ConnectionSupplier connectionSupplier, int numberOfConnections, BatchWriter.Options batchOptions) {
+        if (numberOfConnections <= 0) {
+            throw new IllegalArgumentException("Number of connections must be positive");
+        }
+        this.connectionSupplier = Objects.requireNonNull(connectionSupplier);
+        this.numberOfConnections = numberOfConnections;
+        this.batchOptions = Objects.requireNonNull(batchOptions);
+    }
+
+    /**
+     * Loads the tables one after the other, in dependency order.
+     */
+    public List<TableResult> load(List<TableLoad<?>> tablesInDependencyOrder) throws SQLException {
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfConnections);
+        try {
+            List<TableResult> results = new ArrayList<>();
+            for (TableLoad<?> table : tablesInDependencyOrder) {
+                results.add(loadTable(table, executorService));
+            }
+            return List.copyOf(results);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private <T> TableResult loadTable(TableLoad<T> table, ExecutorService executorService) throws SQLException {
+        long start = System.nanoTime();
+        List<KeyRange> partitions = partition(table.fromId(), table.toId());
+
+        List<Future<BatchWriter.Result>> futures = new ArrayList<>();
+        for (KeyRange range : partitions) {
+            futures.add(executorService.submit(() -> loadPartition(table, range)));
+        }
+
+        long rows = 0;
+        try {
+            for (Future<BatchWriter.Result> future : futures) {
+                rows += future.get().rows();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading table " + table.tableName(), e);
+        } catch (ExecutionException e) {
+            throw toSQLException(table, e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+        return new TableResult(table.tableName(), partitions.size(), rows, System.nanoTime() - start);
+    }
+
+    private <T> BatchWriter.Result loadPartition(TableLoad<T> table, KeyRange range) throws SQLException {
+        try (Connection conn = connectionSupplier.get();
+             Stream<T> rows = table.source().rows(range.fromId(), range.toId())) {
+            return batchInsert(table.insertSql(), table.binder(), batchOptions, rows).apply(conn);
+        }
+    }
+
+    private List<KeyRange> partition(int fromId, int toId) {
+        long size = (long) toId - fromId;
+        int partitionCount = (int) Math.max(1, Math.min(numberOfConnections, size));
+        List<KeyRange> result = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            int start = (int) (fromId + size * i / partitionCount);
+            int end = (int) (fromId + size * (i + 1) / partitionCount);
+            result.add(new KeyRange(start, end));
+        }
+        return result;
+    }
+
+    private static SQLException toSQLException(TableLoad<?> table, Throwable cause) {
+        if (cause instanceof SQLException e) {
+            return e;
+        } else if (cause instanceof UncheckedSQLException e) {
+            return (SQLException) e.getCause();
+        } else {
+            return new SQLException("Loading table " + table.tableName() + " failed", cause);
+        }
+    }
+}
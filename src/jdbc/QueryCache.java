@@ -0,0 +1,344 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionFunction;
+import jdbc.JdbcSupport.JdbcConsumer;
+import jdbc.JdbcSupport.ResultSetFunction;
+import jdbc.JdbcSupport.StatementBinder;
+import jdbc.JdbcSupport.TableWriteListener;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of query results, keyed by SQL text and bound parameter values. It is meant for lookups that
+ * repeat often but change rarely, such as exhibits by id, or the results of stored procedures like
+ * "read_names_by_letter".
+ * <p>
+ * The cache holds at most a configured number of entries, evicting the least recently used (LRU) or least frequently
+ * used (LFU) entry when full. Entries expire after a configured time-to-live. Each entry records the tables it depends
+ * on. Writes made through the write methods of this class invalidate all entries depending on the written table. So do
+ * writes made directly through the {@link JdbcSupport} helpers, once the cache has been registered as
+ * {@link TableWriteListener} (see {@link JdbcSupport#addTableWriteListener}). Then tables written in a transaction of
+ * {@link JdbcSupport#inTransaction} are invalidated once more after commit or rollback. Other writes must be followed
+ * by an explicit call to {@link #invalidateTable(String)}, after commit if they are made in a transaction.
+ * <p>
+ * Cached values are shared between callers, so they must be immutable. The cache is thread-safe.
+ *
+ * @author Chris de Vreeze
+ */
+public final class QueryCache implements TableWriteListener {
+
+    public enum EvictionPolicy {LRU, LFU}
+
+    public record Config(int maxEntries, Duration timeToLive, EvictionPolicy evictionPolicy) {
+
+        public Config {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("Max number of entries must be positive");
+            }
+            if (timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new IllegalArgumentException("Time-to-live must be positive");
+            }
+            Objects.requireNonNull(evictionPolicy);
+        }
+
+        public static Config defaults() {
+            return new Config(10_000, Duration.ofMinutes(1), EvictionPolicy.LRU);
+        }
+    }
+
+    public record Metrics(long hits, long misses, long evictions, long expirations, long invalidations, int size) {
+
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return (lookups == 0) ? 0.0 : hits / (double) lookups;
+        }
+    }
+
+    /**
+     * Cache key. Parameter values are compared with "equals", so arrays (e.g. byte arrays) are not suitable.
+     */
+    private record Key(String sql, List<Object> parameters) {
+    }
+
+    private static final class Entry {
+
+        private final Key key;
+        private final Object value;
+        private final Set<String> tables;
+        private final long expiresAtNanos;
+        private long frequency = 1;
+        private long lastAccess;
+
+        Entry(Key key, Object value, Set<String> tables, long expiresAtNanos) {
+            this.key = key;
+            this.value = value;
+            this.tables = tables;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+    }
+
+    private final Config config;
+
+    // Guarded by "this"
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final Map<String, Set<Key>> keysByTable = new HashMap<>();
+    private final TreeSet<Entry> evictionOrder;
+    private long accessCounter = 0;
+    // Incremented on each invalidation, so that results loaded during an invalidation are not cached
+    private long invalidationCount = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public QueryCache(Config config) {
+        this.config = Objects.requireNonNull(config);
+        Comparator<Entry> byLastAccess = Comparator.comparingLong(e -> e.lastAccess);
+        this.evictionOrder = new TreeSet<>(switch (config.evictionPolicy()) {
+            case LRU -> byLastAccess;
+            case LFU -> Comparator.<Entry>comparingLong(e -> e.frequency).thenComparing(byLastAccess);
+        });
+    }
+
+    // Reads
+
+    /**
+     * Returns a ConnectionFunction returning the (immutable) list of rows of the query, read from the cache if
+     * present, and otherwise queried through {@link JdbcSupport#query} and then cached. The given tables are the
+     * tables the query depends on.
+     */
+    public <R> ConnectionFunction<List<R>> query(
+            String sql,
+            List<?> parameters,
+            Set<String> tables,
+            ResultSetFunction<R> rowMapper) {
+        return cached(sql, parameters, tables, conn -> {
+            try (Stream<R> rows = JdbcSupport.query(sql, bindAll(parameters), rowMapper).apply(conn)) {
+                // Not List.copyOf, because rows may be null
+                return Collections.unmodifiableList(rows.collect(Collectors.toList()));
+            }
+        });
+    }
+
+    /**
+     * Returns a ConnectionFunction returning the cached value for the given SQL and parameters, if present, and
+     * otherwise computing it with the given loader and caching it. This is useful for stored procedure results, for
+     * example. The SQL and parameters only serve as cache key, and the loader must return an immutable value.
+     */
+    public <R> ConnectionFunction<R> cached(
+            String sql,
+            List<?> parameters,
+            Set<String> tables,
+            ConnectionFunction<R> loader) {
+        Key key = new Key(sql, Collections.unmodifiableList(new ArrayList<>(parameters)));
+        Set<String> normalizedTables = tables.stream().map(JdbcSupport::normalizeTable).collect(Collectors.toUnmodifiableSet());
+        return conn -> {
+            Optional<Object> cachedValue = lookup(key);
+            if (cachedValue.isPresent()) {
+                @SuppressWarnings("unchecked")
+                R value = (R) cachedValue.get();
+                return value;
+            }
+            long invalidationCountBeforeLoad = currentInvalidationCount();
+            R value = loader.apply(conn);
+            store(key, value, normalizedTables, invalidationCountBeforeLoad);
+            return value;
+        };
+    }
+
+    // Writes
+
+    /**
+     * Returns a ConnectionFunction that runs the given write function, and afterwards invalidates the table written
+     * by the given insert, update, delete or merge statement.
+     */
+    public <R> ConnectionFunction<R> write(String sql, ConnectionFunction<R> f) {
+        String table = JdbcSupport.writtenTable(sql).orElseThrow(() ->
+                new IllegalArgumentException("Could not determine the written table of SQL: " + sql));
+        return conn -> {
+            try {
+                return f.apply(conn);
+            } finally {
+                // Also after failure, because part of the write may have been executed
+                invalidateTable(table);
+            }
+        };
+    }
+
+    /**
+     * Like {@link JdbcSupport#update}, but invalidating the written table afterwards.
+     */
+    public ConnectionFunction<Integer> update(String sql, JdbcConsumer<PreparedStatement> parameterBinder) {
+        return write(sql, JdbcSupport.update(sql, parameterBinder));
+    }
+
+    /**
+     * Like {@link JdbcSupport#batchInsert}, but invalidating the written table afterwards.
+     */
+    public <T> ConnectionFunction<BatchWriter.Result> batchInsert(
+            String sql,
+            StatementBinder<T> binder,
+            BatchWriter.Options options,
+            Stream<T> rows) {
+        return write(sql, JdbcSupport.batchInsert(sql, binder, options, rows));
+    }
+
+    // Invalidation and metrics
+
+    /**
+     * Invalidates the written table, when registered as {@link TableWriteListener}.
+     */
+    @Override
+    public void tableWritten(String table) {
+        invalidateTable(table);
+    }
+
+    public synchronized void invalidateTable(String table) {
+        invalidationCount += 1;
+        Set<Key> keys = keysByTable.remove(JdbcSupport.normalizeTable(table));
+        if (keys != null) {
+            // Copy, because removing entries updates the table index
+            for (Key key : List.copyOf(keys)) {
+                remove(entries.get(key));
+                invalidations.increment();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidationCount += 1;
+        invalidations.add(entries.size());
+        entries.clear();
+        keysByTable.clear();
+        evictionOrder.clear();
+    }
+
+    /**
+     * Removes all expired entries. Expired entries are also removed when looked up, so calling this method is only
+     * needed to free memory sooner.
+     */
+    public synchronized void removeExpired() {
+        long now = System.nanoTime();
+        for (Entry entry : List.copyOf(entries.values())) {
+            if (entry.isExpired(now)) {
+                remove(entry);
+                expirations.increment();
+            }
+        }
+    }
+
+    public synchronized Metrics metrics() {
+        return new Metrics(
+                hits.sum(),
+                misses.sum(),
+                evictions.sum(),
+                expirations.sum(),
+                invalidations.sum(),
+                entries.size());
+    }
+
+    private synchronized Optional<Object> lookup(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            remove(entry);
+            expirations.increment();
+            misses.increment();
+            return Optional.empty();
+        }
+        // Re-insert, because the ordering fields change
+        evictionOrder.remove(entry);
+        entry.frequency += 1;
+        entry.lastAccess = ++accessCounter;
+        evictionOrder.add(entry);
+        hits.increment();
+        return Optional.of(entry.value);
+    }
+
+    private synchronized long currentInvalidationCount() {
+        return invalidationCount;
+    }
+
+    private synchronized void store(Key key, Object value, Set<String> tables, long invalidationCountBeforeLoad) {
+        if (value == null || invalidationCount != invalidationCountBeforeLoad) {
+            // Null values are not cached, and a value loaded during an invalidation may already be stale
+            return;
+        }
+        Entry previous = entries.get(key);
+        if (previous != null) {
+            remove(previous);
+        }
+        var entry = new Entry(key, value, tables, System.nanoTime() + config.timeToLive().toNanos());
+        entry.lastAccess = ++accessCounter;
+        entries.put(key, entry);
+        evictionOrder.add(entry);
+        tables.forEach(table -> keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key));
+
+        while (entries.size() > config.maxEntries()) {
+            remove(evictionOrder.first());
+            evictions.increment();
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        evictionOrder.remove(entry);
+        for (String table : entry.tables) {
+            Set<Key> keys = keysByTable.get(table);
+            if (keys != null) {
+                keys.remove(entry.key);
+                if (keys.isEmpty()) {
+                    keysByTable.remove(table);
+                }
+            }
+        }
+    }
+
+    private static JdbcConsumer<PreparedStatement> bindAll(List<?> parameters) {
+        return ps -> {
+            for (int i = 0; i < parameters.size(); i++) {
+                ps.setObject(i + 1, parameters.get(i));
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionFunction;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares repeated lookups against the "Zoo" HSQL database with and without a {@link QueryCache}, and shows
+ * invalidation of cached results after writes through the cache and through {@link JdbcSupport}. Program {@link SetupDatabase} must have been run first.
+ *
+ * @author Chris de Vreeze
+ */
+public class QueryCacheExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final String EXHIBIT_NAME_BY_ID = "SELECT name FROM exhibits WHERE id = ?";
+    private static final String READ_NAMES_BY_LETTER = "{call read_names_by_letter(?)}";
+
+    private static ConnectionFunction<List<String>> readNamesByLetter(String letter) {
+        return conn -> {
+            try (CallableStatement cs = conn.prepareCall(READ_NAMES_BY_LETTER)) {
+                cs.setString(1, letter);
+                cs.execute();
+                List<String> names = new ArrayList<>();
+                // HSQLDB returns false from "execute" for dynamic result sets, but "getResultSet" does return the result set
+                try (ResultSet rs = cs.getResultSet()) {
+                    while (rs != null && rs.next()) {
+                        names.add(rs.getString("name"));
+                    }
+                }
+                return List.copyOf(names);
+            }
+        };
+    }
+
+    private static long runLookups(Connection conn, QueryCache cache, int numberOfLookups) throws SQLException {
+        long charCount = 0;
+        for (int i = 0; i < numberOfLookups; i++) {
+            int id = 1 + i % 2;
+            String letter = (i % 2 == 0) ? "e" : "z";
+            if (cache == null) {
+                try (var names = JdbcSupport.query(EXHIBIT_NAME_BY_ID, ps -> ps.setInt(1, id), rs -> rs.getString(1)).apply(conn)) {
+                    charCount += names.mapToInt(String::length).sum();
+                }
+                charCount += readNamesByLetter(letter).apply(conn).size();
+            } else {
+                charCount += cache.query(EXHIBIT_NAME_BY_ID, List.of(id), Set.of("exhibits"), rs -> rs.getString(1))
+                        .apply(conn).stream().mapToInt(String::length).sum();
+                charCount += cache.cached(READ_NAMES_BY_LETTER, List.of(letter), Set.of("names"), readNamesByLetter(letter))
+                        .apply(conn).size();
+            }
+        }
+        return charCount;
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfLookups = (args.length == 0) ? 100_000 : Integer.parseInt(args[0]);
+
+        try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+            var cache = new QueryCache(new QueryCache.Config(1_000, Duration.ofSeconds(30), QueryCache.EvictionPolicy.LFU));
+
+            // Warm-up
+            runLookups(conn, null, numberOfLookups / 10);
+            runLookups(conn, cache, numberOfLookups / 10);
+
+            long start = System.nanoTime();
+            long result = runLookups(conn, null, numberOfLookups);
+            System.out.printf("Without cache: %d lookups in %d ms (checksum %d)%n",
+                    numberOfLookups, (System.nanoTime() - start) / 1_000_000, result);
+
+            start = System.nanoTime();
+            result = runLookups(conn, cache, numberOfLookups);
+            System.out.printf("With cache: %d lookups in %d ms (checksum %d)%n",
+                    numberOfLookups, (System.nanoTime() - start) / 1_000_000, result);
+            System.out.printf("Cache metrics: %s (hit ratio %.4f)%n", cache.metrics(), cache.metrics().hitRatio());
+
+            // A write through the cache invalidates the results depending on the "names" table
+            String insertName = "INSERT INTO names (id, species_id, name) VALUES (?, ?, ?)";
+            String deleteName = "DELETE FROM names WHERE id = ?";
+            cache.update(insertName, ps -> {
+                ps.setInt(1, 999);
+                ps.setInt(2, 1);
+                ps.setString(3, "Eleanor");
+            }).apply(conn);
+            System.out.printf("After insert: %s%n",
+                    cache.cached(READ_NAMES_BY_LETTER, List.of("e"), Set.of("names"), readNamesByLetter("e")).apply(conn));
+            // So does a write through the JdbcSupport helpers, once the cache listens to them
+            JdbcSupport.addTableWriteListener(cache);
+            try {
+                JdbcSupport.inTransaction(JdbcSupport.update(deleteName, ps -> ps.setInt(1, 999))).apply(conn);
+            } finally {
+                JdbcSupport.removeTableWriteListener(cache);
+            }
+            System.out.printf("After delete: %s%n",
+                    cache.cached(READ_NAMES_BY_LETTER, List.of("e"), Set.of("names"), readNamesByLetter("e")).apply(conn));
+            System.out.printf("Cache metrics: %s%n", cache.metrics());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ResultSetFunction;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Row mapper from ResultSet rows to Java records. The record components are mapped to the columns with the same name,
+ * where camel case component names are matched against snake case column names (case-insensitively), unless
+ * the component is annotated with {@link Column}.
+ * <p>
+ * The reflective work is done only once per record type, resulting in a cached canonical constructor MethodHandle and
+ * a typed column reader per component. The column indexes are resolved from the ResultSetMetaData only once per
+ * ResultSet, so per row there are no column name lookups.
+ *
+ * @author Chris de Vreeze
+ */
+public final class RecordRowMapper<R extends Record> implements ResultSetFunction<R> {
+
+    /**
+     * Overrides the column name (or label) to which the annotated record component is mapped.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.RECORD_COMPONENT)
+    public @interface Column {
+
+        String value();
+    }
+
+    @FunctionalInterface
+    private interface ColumnReader {
+
+        Object read(ResultSet rs, int columnIndex) throws SQLException;
+    }
+
+    private record RecordType(
+            Class<?> recordClass,
+            String[] columnNames,
+            ColumnReader[] columnReaders,
+            MethodHandle constructor) {
+    }
+
+    private record Binding(ResultSet resultSet, int[] columnIndexes) {
+    }
+
+    private static final ClassValue<RecordType> recordTypes = new ClassValue<>() {
+        @Override
+        protected RecordType computeValue(Class<?> type) {
+            return analyse(type);
+        }
+    };
+
+    private final RecordType recordType;
+    private volatile Binding binding;
+
+    private RecordRowMapper(RecordType recordType) {
+        this.recordType = recordType;
+    }
+
+    public static <R extends Record> RecordRowMapper<R> forRecord(Class<R> recordClass) {
+        return new RecordRowMapper<>(recordTypes.get(recordClass));
+    }
+
+    @Override
+    public R apply(ResultSet rs) throws SQLException {
+        Binding currentBinding = binding;
+        if (currentBinding == null || currentBinding.resultSet() != rs) {
+            currentBinding = new Binding(rs, resolveColumnIndexes(rs.getMetaData()));
+            binding = currentBinding;
+        }
+
+        int[] columnIndexes = currentBinding.columnIndexes();
+        ColumnReader[] columnReaders = recordType.columnReaders();
+        Object[] args = new Object[columnIndexes.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = columnReaders[i].read(rs, columnIndexes[i]);
+        }
+        return newRecord(args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private R newRecord(Object[] args) {
+        try {
+            return (R) (Object) recordType.constructor().invokeExact(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create record of type " + recordType.recordClass().getName(), e);
+        }
+    }
+
+    private int[] resolveColumnIndexes(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columnIndexesByName = new HashMap<>();
+        for (int i = metaData.getColumnCount(); i >= 1; i--) {
+            // Iterating backwards, so the first occurrence of a duplicate column label wins
+            columnIndexesByName.put(metaData.getColumnLabel(i).toUpperCase(Locale.ROOT), i);
+        }
+
+        String[] columnNames = recordType.columnNames();
+        int[] result = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            Integer columnIndex = columnIndexesByName.get(columnNames[i]);
+            if (columnIndex == null) {
+                throw new SQLException(String.format(
+                        "No column '%s' found for record %s", columnNames[i], recordType.recordClass().getName()));
+            }
+            result[i] = columnIndex;
+        }
+        return result;
+    }
+
+    private static RecordType analyse(Class<?> recordClass) {
+        if (!recordClass.isRecord()) {
+            throw new IllegalArgumentException("Not a record class: " + recordClass.getName());
+        }
+        RecordComponent[] components = recordClass.getRecordComponents();
+        String[] columnNames = Arrays.stream(components).map(RecordRowMapper::columnName).toArray(String[]::new);
+        ColumnReader[] columnReaders =
+                Arrays.stream(components).map(c -> columnReader(c.getType())).toArray(ColumnReader[]::new);
+
+        try {
+            Class<?>[] parameterTypes = Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new);
+            Constructor<?> canonicalConstructor = recordClass.getDeclaredConstructor(parameterTypes);
+            canonicalConstructor.setAccessible(true);
+            MethodHandle constructor = MethodHandles.lookup()
+                    .unreflectConstructor(canonicalConstructor)
+                    .asSpreader(Object[].class, components.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            return new RecordType(recordClass, columnNames, columnReaders, constructor);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Could not access canonical constructor of " + recordClass.getName(), e);
+        }
+    }
+
+    private static String columnName(RecordComponent component) {
+        Column column = component.getAnnotation(Column.class);
+        String name = (column != null) ? column.value() : component.getName().replaceAll("([a-z0-9])([A-Z])", "$1_$2");
+        return name.toUpperCase(Locale.ROOT);
+    }
+
+    private static ColumnReader columnReader(Class<?> type) {
+        if (type == String.class) {
+            return ResultSet::getString;
+        } else if (type == int.class) {
+            return ResultSet::getInt;
+        } else if (type == long.class) {
+            return ResultSet::getLong;
+        } else if (type == double.class) {
+            return ResultSet::getDouble;
+        } else if (type == boolean.class) {
+            return ResultSet::getBoolean;
+        } else if (type == short.class) {
+            return ResultSet::getShort;
+        } else if (type == byte.class) {
+            return ResultSet::getByte;
+        } else if (type == float.class) {
+            return ResultSet::getFloat;
+        } else if (type == char.class) {
+            return (rs, i) -> {
+                String s = rs.getString(i);
+                return (s == null || s.isEmpty()) ? '\0' : s.charAt(0);
+            };
+        } else if (type == BigDecimal.class) {
+            return ResultSet::getBigDecimal;
+        } else {
+            // Boxed primitives (keeping SQL NULL as null), java.time types, etc.
+            return (rs, i) -> rs.getObject(i, type);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package jdbc;
 
+import java.math.BigDecimal;
 import java.sql.*;
 
 /**
@@ -14,6 +15,7 @@ public class SetupDatabase {
 
             dropExisting(conn);
             createTables(conn);
+            insertRows(conn);
             createStoredProcedures(conn);
 
             printCount(conn, "SELECT count(*) FROM names");
@@ -29,7 +31,7 @@ public class SetupDatabase {
         run(conn, "DROP TABLE exhibits IF EXISTS");
     }
 
-    private static void createTables(Connection conn) throws SQLException {
+    static void createTables(Connection conn) throws SQLException {
         run(conn, """
                 CREATE TABLE exhibits (
                   id INTEGER PRIMARY KEY,
@@ -41,18 +43,41 @@ public class SetupDatabase {
                    id INTEGER PRIMARY KEY,
                    species_id integer REFERENCES exhibits (id),
                    name VARCHAR(255))""");
+    }
 
-        run(conn, "INSERT INTO exhibits VALUES (1, 'African Elephant', 7.5)");
-        run(conn, "INSERT INTO exhibits VALUES (2, 'Zebra', 1.2)");
+    private static void insertRows(Connection conn) throws SQLException {
+        // Each insert statement is prepared once, and reused from the statement cache for each row
+        try (StatementCache statementCache = new StatementCache(conn, 16)) {
+            insertExhibit(statementCache, 1, "African Elephant", new BigDecimal("7.5"));
+            insertExhibit(statementCache, 2, "Zebra", new BigDecimal("1.2"));
+
+            insertName(statementCache, 1, 1, "Elsa");
+            insertName(statementCache, 2, 2, "Zelda");
+            insertName(statementCache, 3, 1, "Ester");
+            insertName(statementCache, 4, 1, "Eddie");
+            insertName(statementCache, 5, 2, "Zoe");
+        }
+    }
+
+    private static void insertExhibit(StatementCache statementCache, int id, String name, BigDecimal numAcres) throws SQLException {
+        statementCache.execute("INSERT INTO exhibits VALUES (?, ?, ?)", ps -> {
+            ps.setInt(1, id);
+            ps.setString(2, name);
+            ps.setBigDecimal(3, numAcres);
+            return ps.executeUpdate();
+        });
+    }
 
-        run(conn, "INSERT INTO names VALUES (1, 1, 'Elsa')");
-        run(conn, "INSERT INTO names VALUES (2, 2, 'Zelda')");
-        run(conn, "INSERT INTO names VALUES (3, 1, 'Ester')");
-        run(conn, "INSERT INTO names VALUES (4, 1, 'Eddie')");
-        run(conn, "INSERT INTO names VALUES (5, 2, 'Zoe')");
+    private static void insertName(StatementCache statementCache, int id, int speciesId, String name) throws SQLException {
+        statementCache.execute("INSERT INTO names VALUES (?, ?, ?)", ps -> {
+            ps.setInt(1, id);
+            ps.setInt(2, speciesId);
+            ps.setString(3, name);
+            return ps.executeUpdate();
+        });
     }
 
-    private static void createStoredProcedures(Connection conn) throws SQLException {
+    static void createStoredProcedures(Connection conn) throws SQLException {
         String noParams = """
                 CREATE PROCEDURE read_e_names()
                 READS SQL DATA DYNAMIC RESULT SETS 1
@@ -89,6 +114,7 @@ public class SetupDatabase {
         run(conn, inOutParam);
     }
 
+    // Not through the statement cache, because each DDL statement runs only once
     private static void run(Connection conn, String sql) throws SQLException {
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.executeUpdate();
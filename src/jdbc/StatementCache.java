@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.PreparedStatementFunction;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Per-connection LRU cache of prepared statements, keyed by SQL text. Reusing a prepared statement saves the database
+ * the work of parsing and planning the same SQL again.
+ * <p>
+ * Callable statements (for stored procedures) are cached as well, keyed by SQL text and the OUT parameters registered
+ * when the statement is prepared. So the same call SQL with other OUT parameter registrations gets its own statement.
+ * <p>
+ * The cache owns the statements, so callers must not close them. Evicted statements are closed, and closing the cache
+ * closes all cached statements (but not the connection). Like a connection, a statement cache must not be used by
+ * multiple threads at the same time.
+ * <p>
+ * A cache created with the constructor is owned by the caller, who must close it (typically in a try-with-resources
+ * statement) once its statements are no longer needed. Method {@link #ofPooledConnection} returns the cache owned by
+ * a {@link ConnectionPool} for the physical connection of a borrowed connection instead. That cache survives the lease,
+ * so later borrowers reuse its statements, and it is closed by the pool when the physical connection is closed.
+ *
+ * @author Chris de Vreeze
+ */
+public final class StatementCache implements AutoCloseable {
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    /**
+     * OUT or INOUT parameter of a callable statement, with its 1-based index and SQL type (see {@link java.sql.Types}).
+     */
+    public record OutParameter(int index, int sqlType) {
+    }
+
+    /**
+     * Cache key. Prepared statements have no OUT parameters, and are never shared with callable statements.
+     */
+    private record Key(String sql, boolean callable, List<OutParameter> outParameters) {
+    }
+
+    private final Connection connection;
+    private final int maxSize;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public StatementCache(Connection connection, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max cache size must be positive");
+        }
+        this.connection = Objects.requireNonNull(connection);
+        this.maxSize = maxSize;
+        // Access order, so that iteration starts with the least recently used statement
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the statement cache of the pooled physical connection, if the given connection has been borrowed from a
+     * {@link ConnectionPool}, creating it with the given max size if needed. The cache is owned by the pool, so it must
+     * not be closed by the caller. Returns an empty Optional for other connections.
+     */
+    public static Optional<StatementCache> ofPooledConnection(Connection connection, int maxSize) throws SQLException {
+        return ConnectionPool.statementCacheOf(connection, maxSize);
+    }
+
+    /**
+     * Returns the cached prepared statement for this SQL (with cleared parameters), preparing it on a cache miss.
+     * The returned statement must not be closed by the caller.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        Key key = new Key(sql, false, List.of());
+        PreparedStatement ps = statements.get(key);
+        if (ps != null && !ps.isClosed()) {
+            hits += 1;
+            ps.clearParameters();
+            return ps;
+        }
+        misses += 1;
+        ps = connection.prepareStatement(sql);
+        statements.put(key, ps);
+        evictIfNeeded();
+        return ps;
+    }
+
+    /**
+     * Returns the cached callable statement for this SQL and these OUT parameters, preparing it and registering the
+     * OUT parameters on a cache miss. IN values bound by an earlier call are not cleared, so the caller must bind all of
+     * them again. The returned statement must not be closed by the caller.
+     */
+    public CallableStatement prepareCall(String sql, List<OutParameter> outParameters) throws SQLException {
+        Key key = new Key(sql, true, List.copyOf(outParameters));
+        PreparedStatement ps = statements.get(key);
+        if (ps != null && !ps.isClosed()) {
+            hits += 1;
+            return (CallableStatement) ps;
+        }
+        misses += 1;
+        CallableStatement cs = connection.prepareCall(sql);
+        try {
+            for (OutParameter outParameter : key.outParameters()) {
+                cs.registerOutParameter(outParameter.index(), outParameter.sqlType());
+            }
+        } catch (SQLException | RuntimeException e) {
+            cs.close();
+            throw e;
+        }
+        statements.put(key, cs);
+        evictIfNeeded();
+        return cs;
+    }
+
+    public <R> R execute(String sql, PreparedStatementFunction<R> f) throws SQLException {
+        return f.apply(prepare(sql));
+    }
+
+    public Stats stats() {
+        return new Stats(hits, misses, evictions, statements.size());
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException exception = null;
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        statements.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void evictIfNeeded() throws SQLException {
+        Iterator<Map.Entry<Key, PreparedStatement>> iter = statements.entrySet().iterator();
+        while (statements.size() > maxSize && iter.hasNext()) {
+            PreparedStatement eldest = iter.next().getValue();
+            iter.remove();
+            evictions += 1;
+            eldest.close();
+        }
+    }
+}
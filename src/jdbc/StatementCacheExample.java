@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static jdbc.JdbcSupport.withStatementCache;
+
+/**
+ * Compares repeated queries against the "Zoo" HSQL database with and without a {@link StatementCache}.
+ * Program {@link SetupDatabase} must have been run first.
+ *
+ * @author Chris de Vreeze
+ */
+public class StatementCacheExample {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final String NAME_BY_ID = "SELECT name FROM names WHERE id = ?";
+    private static final String EXHIBIT_BY_ID = "SELECT name FROM exhibits WHERE id = ?";
+
+    private static String queryName(PreparedStatement ps, int id) throws SQLException {
+        ps.setInt(1, id);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static long runWithoutCache(Connection conn, int numberOfQueries) throws SQLException {
+        long charCount = 0;
+        for (int i = 0; i < numberOfQueries; i++) {
+            try (PreparedStatement ps = conn.prepareStatement((i % 2 == 0) ? NAME_BY_ID : EXHIBIT_BY_ID)) {
+                charCount += queryName(ps, 1 + i % 2).length();
+            }
+        }
+        return charCount;
+    }
+
+    private static long runWithCache(StatementCache statementCache, int numberOfQueries) throws SQLException {
+        long charCount = 0;
+        for (int i = 0; i < numberOfQueries; i++) {
+            int id = 1 + i % 2;
+            charCount += statementCache.execute((i % 2 == 0) ? NAME_BY_ID : EXHIBIT_BY_ID, ps -> queryName(ps, id)).length();
+        }
+        return charCount;
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfQueries = (args.length == 0) ? 200_000 : Integer.parseInt(args[0]);
+
+        try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+            long start = System.nanoTime();
+            long result1 = runWithoutCache(conn, numberOfQueries);
+            System.out.printf("Without statement cache: %d queries in %d ms%n", numberOfQueries, (System.nanoTime() - start) / 1_000_000);
+
+            // The statement cache belongs to the pooled physical connection, so the second call (borrowing the same
+            // connection again) reuses the statements of the first one
+            try (var pool = new ConnectionPool(() -> DriverManager.getConnection(JDBC_URL), ConnectionPool.Config.withMaxSize(1))) {
+                for (int call = 1; call <= 2; call++) {
+                    start = System.nanoTime();
+                    StatementCache.Stats stats;
+                    try (Connection pooledConn = pool.get()) {
+                        stats = withStatementCache(16, statementCache -> {
+                            long result2 = runWithCache(statementCache, numberOfQueries);
+                            if (result2 != result1) {
+                                throw new IllegalStateException("Different query results with and without statement cache");
+                            }
+                            return statementCache.stats();
+                        }).apply(pooledConn);
+                    }
+                    System.out.printf("With statement cache (call %d): %d queries in %d ms%n", call, numberOfQueries, (System.nanoTime() - start) / 1_000_000);
+                    System.out.printf("Statement cache stats: %s%n", stats);
+                }
+            }
+        }
+    }
+}
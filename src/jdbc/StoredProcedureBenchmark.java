@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.ZooDataGenerator.Name;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark of calling the stored procedures of the "Zoo" HSQL database with ad-hoc "prepareCall" per call, compared
+ * with a {@link StoredProcedureInvoker}. Program {@link SetupDatabase} must have been run first.
+ * <p>
+ * The program takes an optional number of calls (default 1 million) as program argument. The procedures returning
+ * result sets are called 10 times less often.
+ *
+ * @author Chris de Vreeze
+ */
+public class StoredProcedureBenchmark {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static long doubleNumbersAdHoc(Connection conn, int numberOfCalls) throws SQLException {
+        long checksum = 0;
+        for (int i = 0; i < numberOfCalls; i++) {
+            try (CallableStatement cs = conn.prepareCall("{call double_number(?)}")) {
+                cs.setInt(1, i);
+                cs.registerOutParameter(1, Types.INTEGER);
+                cs.execute();
+                checksum += cs.getInt(1);
+            }
+        }
+        return checksum;
+    }
+
+    private static long doubleNumbersWithInvoker(StoredProcedureInvoker invoker, int numberOfCalls) throws SQLException {
+        long checksum = 0;
+        for (int i = 0; i < numberOfCalls; i++) {
+            checksum += invoker.call(ZooProcedures.DOUBLE_NUMBER, i);
+        }
+        return checksum;
+    }
+
+    private static long readNamesAdHoc(Connection conn, int numberOfCalls) throws SQLException {
+        long checksum = 0;
+        for (int i = 0; i < numberOfCalls; i++) {
+            try (CallableStatement cs = conn.prepareCall("{call read_names_by_letter(?)}")) {
+                cs.setString(1, (i % 2 == 0) ? "e" : "z");
+                cs.execute();
+                List<Name> names = new ArrayList<>();
+                try (ResultSet rs = cs.getResultSet()) {
+                    while (rs != null && rs.next()) {
+                        names.add(new Name(rs.getInt("id"), rs.getInt("species_id"), rs.getString("name")));
+                    }
+                }
+                checksum += names.size();
+            }
+        }
+        return checksum;
+    }
+
+    private static long readNamesWithInvoker(StoredProcedureInvoker invoker, int numberOfCalls) throws SQLException {
+        long checksum = 0;
+        for (int i = 0; i < numberOfCalls; i++) {
+            checksum += invoker.queryList(ZooProcedures.READ_NAMES_BY_LETTER, (i % 2 == 0) ? "e" : "z").size();
+        }
+        return checksum;
+    }
+
+    @FunctionalInterface
+    private interface Run {
+
+        long run(int numberOfCalls) throws SQLException;
+    }
+
+    private static void measure(String description, int numberOfCalls, Run run) throws SQLException {
+        // Warm-up
+        run.run(Math.max(1, numberOfCalls / 10));
+
+        long start = System.nanoTime();
+        long checksum = run.run(numberOfCalls);
+        long elapsedNanos = System.nanoTime() - start;
+        System.out.printf(
+                "%-40s %8d calls in %6d ms, %6.2f us/call (checksum %d)%n",
+                description + ":",
+                numberOfCalls,
+                elapsedNanos / 1_000_000,
+                elapsedNanos / 1_000.0 / numberOfCalls,
+                checksum);
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int numberOfCalls = (args.length == 0) ? 1_000_000 : Integer.parseInt(args[0]);
+
+        try (Connection conn = DriverManager.getConnection(JDBC_URL);
+             var invoker = new StoredProcedureInvoker(conn, 16)) {
+            System.out.printf("Magic number: %d%n", invoker.call(ZooProcedures.MAGIC_NUMBER, null));
+            System.out.printf("Names starting with 'e': %s%n", invoker.queryList(ZooProcedures.READ_E_NAMES, null));
+
+            measure("double_number, ad-hoc prepareCall", numberOfCalls, n -> doubleNumbersAdHoc(conn, n));
+            measure("double_number, invoker", numberOfCalls, n -> doubleNumbersWithInvoker(invoker, n));
+            measure("read_names_by_letter, ad-hoc prepareCall", numberOfCalls / 10, n -> readNamesAdHoc(conn, n));
+            measure("read_names_by_letter, invoker", numberOfCalls / 10, n -> readNamesWithInvoker(invoker, n));
+            System.out.printf("Invoker statement cache: %s%n", invoker.stats());
+        }
+    }
+}
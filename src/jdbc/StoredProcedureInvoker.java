@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.CallableStatementFunction;
+import jdbc.JdbcSupport.ResultSetFunction;
+import jdbc.JdbcSupport.StatementBinder;
+import jdbc.StatementCache.OutParameter;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static jdbc.JdbcSupport.stream;
+
+/**
+ * Typed invoker of stored procedures, caching the CallableStatement of each procedure for a connection in a
+ * {@link StatementCache}. OUT and INOUT parameters are registered once, when the statement is prepared, so a call only
+ * binds the IN values, executes the statement, and reads the output. Statements are cached per call SQL and OUT
+ * parameter list, so procedures with the same SQL but other OUT parameters do not share a statement.
+ * <p>
+ * Procedures returning a dynamic result set are described by a {@link RowProcedure}, whose rows are mapped through
+ * the streaming API of {@link JdbcSupport#stream}, e.g. with a {@link RecordRowMapper}. Like a connection, an invoker
+ * must not be used by multiple threads at the same time.
+ *
+ * @author Chris de Vreeze
+ */
+public final class StoredProcedureInvoker implements AutoCloseable {
+
+    /**
+     * Procedure taking input I (bound as IN values), and returning output O (read from the executed statement,
+     * typically from its OUT parameters).
+     */
+    public record Procedure<I, O>(
+            String callSql,
+            List<OutParameter> outParameters,
+            StatementBinder<I> inputBinder,
+            CallableStatementFunction<O> outputReader) {
+
+        public Procedure {
+            Objects.requireNonNull(callSql);
+            outParameters = List.copyOf(outParameters);
+            Objects.requireNonNull(inputBinder);
+            Objects.requireNonNull(outputReader);
+        }
+    }
+
+    /**
+     * Procedure taking input I (bound as IN values), and returning a dynamic result set of rows mapped to R.
+     */
+    public record RowProcedure<I, R>(String callSql, StatementBinder<I> inputBinder, ResultSetFunction<R> rowMapper) {
+
+        public RowProcedure {
+            Objects.requireNonNull(callSql);
+            Objects.requireNonNull(inputBinder);
+            Objects.requireNonNull(rowMapper);
+        }
+    }
+
+    private final StatementCache statementCache;
+
+    public StoredProcedureInvoker(Connection connection, int maxSize) {
+        this.statementCache = new StatementCache(connection, maxSize);
+    }
+
+    /**
+     * Calls the procedure with the given input, and returns its output.
+     */
+    public <I, O> O call(Procedure<I, O> procedure, I input) throws SQLException {
+        CallableStatement cs = statementCache.prepareCall(procedure.callSql(), procedure.outParameters());
+        procedure.inputBinder().bind(cs, input);
+        cs.execute();
+        return procedure.outputReader().apply(cs);
+    }
+
+    /**
+     * Calls the procedure with the given input, and returns its rows as lazy stream. The stream must be closed
+     * (which closes the result set, but not the cached statement) before calling the same procedure again.
+     */
+    public <I, R> Stream<R> query(RowProcedure<I, R> procedure, I input) throws SQLException {
+        CallableStatement cs = statementCache.prepareCall(procedure.callSql(), List.of());
+        procedure.inputBinder().bind(cs, input);
+        // HSQLDB returns false from "execute" for dynamic result sets, but "getResultSet" does return the result set
+        cs.execute();
+        ResultSet rs = cs.getResultSet();
+        if (rs == null) {
+            throw new SQLException("No result set returned by " + procedure.callSql());
+        }
+        return stream(rs, procedure.rowMapper());
+    }
+
+    /**
+     * Like {@link #query(RowProcedure, Object)}, but returning all rows as list.
+     */
+    public <I, R> List<R> queryList(RowProcedure<I, R> procedure, I input) throws SQLException {
+        try (Stream<R> rows = query(procedure, input)) {
+            return rows.toList();
+        }
+    }
+
+    public StatementCache.Stats stats() {
+        return statementCache.stats();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        statementCache.close();
+    }
+}
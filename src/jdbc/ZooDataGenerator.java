@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.ParallelBulkLoader.TableLoad;
+import jdbc.ParallelBulkLoader.TableResult;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic generator of synthetic data for the "exhibits" and "names" tables of the "Zoo" HSQL database.
+ * <p>
+ * Each generated row only depends on the seed and the primary key, and not on any other rows. So the same seed
+ * always gives the same data, and any key range can be generated independently, which makes the generator a natural
+ * {@link ParallelBulkLoader.RangeSource}. Rows are streamed directly into batched inserts, without ever materializing
+ * the table contents in memory.
+ *
+ * @author Chris de Vreeze
+ */
+public final class ZooDataGenerator {
+
+    public record Exhibit(int id, String name, BigDecimal numAcres) {
+    }
+
+    public record Name(int id, int speciesId, String name) {
+    }
+
+    /**
+     * Number of rows per table. By default there are 100 names per exhibit.
+     */
+    public record Scale(int exhibits, int names) {
+
+        public Scale {
+            if (exhibits <= 0 || names < 0) {
+                throw new IllegalArgumentException("There must be at least 1 exhibit, and no negative number of names");
+            }
+        }
+
+        public static Scale ofNames(int names) {
+            return new Scale(Math.max(1, names / 100), names);
+        }
+    }
+
+    public static final String INSERT_EXHIBIT = "INSERT INTO exhibits (id, name, num_acres) VALUES (?, ?, ?)";
+    public static final String INSERT_NAME = "INSERT INTO names (id, species_id, name) VALUES (?, ?, ?)";
+
+    private static final List<String> ADJECTIVES = List.of(
+            "African", "Asian", "Arctic", "Bornean", "Giant", "Golden", "Grey", "Lesser", "Mountain", "Plains",
+            "Red", "Royal", "Snowy", "Spotted", "Striped", "Sumatran");
+
+    private static final List<String> ANIMALS = List.of(
+            "Elephant", "Zebra", "Lion", "Tiger", "Giraffe", "Rhino", "Hippo", "Gorilla", "Orangutan", "Panda",
+            "Leopard", "Cheetah", "Wolf", "Bear", "Penguin", "Flamingo", "Kangaroo", "Koala", "Otter", "Lemur");
+
+    // One first syllable per letter of the alphabet, so that name prefixes are spread evenly
+    private static final List<String> FIRST_SYLLABLES = List.of(
+            "al", "be", "ca", "da", "el", "fa", "ga", "ha", "is", "jo", "ka", "lu", "ma",
+            "ne", "ol", "pa", "qui", "ro", "sa", "ti", "ur", "vi", "wa", "xa", "yo", "ze");
+
+    private static final List<String> SYLLABLES = List.of(
+            "na", "ri", "lo", "mi", "sa", "te", "do", "la", "ra", "ni", "ko", "be", "li", "ta", "ro", "da");
+
+    private final long seed;
+
+    public ZooDataGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public Exhibit exhibit(int id) {
+        String name = pick(ADJECTIVES, id, 1) + " " + pick(ANIMALS, id, 2);
+        // DECIMAL(4,1), so between 0.1 and 999.9 acres
+        BigDecimal numAcres = BigDecimal.valueOf(1 + Math.floorMod(hash(id, 3), 9_999), 1);
+        return new Exhibit(id, name, numAcres);
+    }
+
+    /**
+     * Returns the name with the given id, referring to one of the exhibits with ids in the given (half-open) range.
+     */
+    public Name name(int id, int firstExhibitId, int numberOfExhibits) {
+        int speciesId = firstExhibitId + Math.floorMod(hash(id, 4), numberOfExhibits);
+        String name = pick(FIRST_SYLLABLES, id, 5) + pick(SYLLABLES, id, 6)
+                + ((Math.floorMod(hash(id, 7), 2) == 0) ? "" : pick(SYLLABLES, id, 8));
+        return new Name(id, speciesId, Character.toUpperCase(name.charAt(0)) + name.substring(1));
+    }
+
+    public Stream<Exhibit> exhibits(int fromId, int toId) {
+        return IntStream.range(fromId, toId).mapToObj(this::exhibit);
+    }
+
+    public Stream<Name> names(int fromId, int toId, int firstExhibitId, int numberOfExhibits) {
+        return IntStream.range(fromId, toId).mapToObj(i -> name(i, firstExhibitId, numberOfExhibits));
+    }
+
+    /**
+     * Returns the table loads for the given scale, where both exhibit and name ids start at the given first id.
+     * The exhibits come first, because the names refer to them.
+     */
+    public List<TableLoad<?>> tableLoads(int firstId, Scale scale) {
+        TableLoad<Exhibit> exhibits = new TableLoad<>(
+                "exhibits",
+                INSERT_EXHIBIT,
+                ZooDataGenerator::bindExhibit,
+                firstId,
+                firstId + scale.exhibits(),
+                this::exhibits);
+        TableLoad<Name> names = new TableLoad<>(
+                "names",
+                INSERT_NAME,
+                ZooDataGenerator::bindName,
+                firstId,
+                firstId + scale.names(),
+                (from, to) -> names(from, to, firstId, scale.exhibits()));
+        return List.of(exhibits, names);
+    }
+
+    /**
+     * Replaces the contents of the "exhibits" and "names" tables by generated data of the given scale.
+     */
+    public List<TableResult> populate(ConnectionSupplier connectionSupplier, Scale scale, int numberOfConnections)
+            throws SQLException {
+        try (Connection conn = connectionSupplier.get()) {
+            for (String sql : List.of("DELETE FROM names", "DELETE FROM exhibits")) {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.executeUpdate();
+                }
+            }
+        }
+        var loader = new ParallelBulkLoader(connectionSupplier, numberOfConnections, new BatchWriter.Options(5_000, 10));
+        return loader.load(tableLoads(1, scale));
+    }
+
+    public static void bindExhibit(PreparedStatement ps, Exhibit exhibit) throws SQLException {
+        ps.setInt(1, exhibit.id());
+        ps.setString(2, exhibit.name());
+        ps.setBigDecimal(3, exhibit.numAcres());
+    }
+
+    public static void bindName(PreparedStatement ps, Name name) throws SQLException {
+        ps.setInt(1, name.id());
+        ps.setInt(2, name.speciesId());
+        ps.setString(3, name.name());
+    }
+
+    private String pick(List<String> values, int id, int field) {
+        return values.get(Math.floorMod(hash(id, field), values.size()));
+    }
+
+    /**
+     * SplitMix64-style mixing of seed, id and field number into a well-distributed pseudo-random long.
+     */
+    private long hash(int id, int field) {
+        long z = seed + id * 0x9E3779B97F4A7C15L + field * 0xD1B54A32D192ED03L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
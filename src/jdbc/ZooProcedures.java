@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.StatementCache.OutParameter;
+import jdbc.StoredProcedureInvoker.Procedure;
+import jdbc.StoredProcedureInvoker.RowProcedure;
+import jdbc.ZooDataGenerator.Name;
+
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Typed definitions of the stored procedures created by {@link SetupDatabase}, for use with a
+ * {@link StoredProcedureInvoker}.
+ *
+ * @author Chris de Vreeze
+ */
+public final class ZooProcedures {
+
+    private ZooProcedures() {
+    }
+
+    public static final RowProcedure<Void, Name> READ_E_NAMES = new RowProcedure<>(
+            "{call read_e_names()}",
+            (cs, input) -> {
+            },
+            RecordRowMapper.forRecord(Name.class));
+
+    public static final RowProcedure<String, Name> READ_NAMES_BY_LETTER = new RowProcedure<>(
+            "{call read_names_by_letter(?)}",
+            (cs, prefix) -> cs.setString(1, prefix),
+            RecordRowMapper.forRecord(Name.class));
+
+    public static final Procedure<Void, Integer> MAGIC_NUMBER = new Procedure<>(
+            "{call magic_number(?)}",
+            List.of(new OutParameter(1, Types.INTEGER)),
+            (cs, input) -> {
+            },
+            cs -> cs.getInt(1));
+
+    public static final Procedure<Integer, Integer> DOUBLE_NUMBER = new Procedure<>(
+            "{call double_number(?)}",
+            List.of(new OutParameter(1, Types.INTEGER)),
+            (cs, number) -> cs.setInt(1, number),
+            cs -> cs.getInt(1));
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import jdbc.JdbcSupport.ConnectionSupplier;
+import jdbc.ParallelBulkLoader.TableResult;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark suite calling the stored procedures of the "Zoo" HSQL database at growing data scales, from 10^3 "names"
+ * rows up to 10^N rows (where N is at most 8). At each scale the tables are filled by {@link ZooDataGenerator}, after
+ * which each stored procedure is called repeatedly, and latency percentiles are reported.
+ * <p>
+ * Program {@link SetupDatabase} must have been run first. Note that this benchmark replaces the contents of the
+ * "exhibits" and "names" tables, so run {@link SetupDatabase} again afterwards to restore the original data.
+ * <p>
+ * Program arguments (all optional): the maximum scale exponent (default 5), the number of loader connections
+ * (default 4), and the random seed (default 42). Scales beyond 10^6 need a large heap.
+ *
+ * @author Chris de Vreeze
+ */
+public class ZooScaleBenchmark {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:file:zoo";
+
+    private static final int MAX_SCALE_EXPONENT = 8;
+
+    private record LatencyStats(int calls, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos, long rows) {
+
+        static LatencyStats of(long[] latencies, long rows) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return new LatencyStats(
+                    sorted.length,
+                    percentile(sorted, 50),
+                    percentile(sorted, 90),
+                    percentile(sorted, 99),
+                    sorted[sorted.length - 1],
+                    rows);
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+
+    @FunctionalInterface
+    private interface ProcedureCall {
+
+        /**
+         * Calls the procedure for the given iteration, returning the number of rows (or values) read.
+         */
+        long call(CallableStatement cs, int iteration) throws SQLException;
+    }
+
+    private record Procedure(String name, String callSql, ProcedureCall call) {
+    }
+
+    private static final List<Procedure> procedures = List.of(
+            new Procedure("read_e_names", "{call read_e_names()}", (cs, i) -> countRows(cs)),
+            new Procedure("read_names_by_letter", "{call read_names_by_letter(?)}", (cs, i) -> {
+                cs.setString(1, String.valueOf((char) ('a' + i % 26)));
+                return countRows(cs);
+            }),
+            new Procedure("magic_number", "{call magic_number(?)}", (cs, i) -> {
+                cs.registerOutParameter(1, Types.INTEGER);
+                cs.execute();
+                return (cs.getInt(1) == 42) ? 1 : 0;
+            }),
+            new Procedure("double_number", "{call double_number(?)}", (cs, i) -> {
+                cs.setInt(1, i);
+                cs.registerOutParameter(1, Types.INTEGER);
+                cs.execute();
+                return (cs.getInt(1) == 2 * i) ? 1 : 0;
+            })
+    );
+
+    private static long countRows(CallableStatement cs) throws SQLException {
+        long count = 0;
+        // HSQLDB returns false from "execute" for dynamic result sets, but "getResultSet" does return the result set
+        cs.execute();
+        try (ResultSet rs = cs.getResultSet()) {
+            while (rs != null && rs.next()) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private static LatencyStats measure(Connection conn, Procedure procedure, int iterations) throws SQLException {
+        try (CallableStatement cs = conn.prepareCall(procedure.callSql())) {
+            // Warm-up
+            for (int i = 0; i < Math.max(5, iterations / 10); i++) {
+                procedure.call().call(cs, i);
+            }
+
+            long[] latencies = new long[iterations];
+            long rows = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                rows += procedure.call().call(cs, i);
+                latencies[i] = System.nanoTime() - start;
+            }
+            return LatencyStats.of(latencies, rows);
+        }
+    }
+
+    private static void useCachedTables(Connection conn) throws SQLException {
+        // Cached tables are kept on disk (with a memory cache), instead of completely in memory
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET TABLE exhibits TYPE CACHED");
+            stmt.execute("SET TABLE names TYPE CACHED");
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int maxExponent = Math.min(MAX_SCALE_EXPONENT, (args.length >= 1) ? Integer.parseInt(args[0]) : 5);
+        int numberOfConnections = (args.length >= 2) ? Integer.parseInt(args[1]) : 4;
+        long seed = (args.length >= 3) ? Long.parseLong(args[2]) : 42;
+
+        ConnectionSupplier connectionSupplier = () -> DriverManager.getConnection(JDBC_URL);
+        var generator = new ZooDataGenerator(seed);
+
+        try (Connection conn = connectionSupplier.get()) {
+            if (maxExponent > 6) {
+                useCachedTables(conn);
+            }
+
+            for (int exponent = 3; exponent <= maxExponent; exponent++) {
+                var scale = ZooDataGenerator.Scale.ofNames((int) Math.pow(10, exponent));
+
+                long start = System.nanoTime();
+                List<TableResult> loadResults = generator.populate(connectionSupplier, scale, numberOfConnections);
+                long loadMillis = (System.nanoTime() - start) / 1_000_000;
+                long loadedRows = loadResults.stream().mapToLong(TableResult::rows).sum();
+
+                System.out.println();
+                System.out.printf(
+                        "Scale 10^%d: %d exhibits, %d names (loaded %d rows in %d ms)%n",
+                        exponent, scale.exhibits(), scale.names(), loadedRows, loadMillis);
+
+                // Fewer iterations for the full table scans at larger scales
+                int iterations = (int) Math.max(10, Math.min(500, 10_000_000L / scale.names()));
+
+                for (Procedure procedure : procedures) {
+                    LatencyStats stats = measure(conn, procedure, iterations);
+                    System.out.printf(
+                            "\t%-22s calls %5d, rows/call %10.1f, p50 %10.3f ms, p90 %10.3f ms, p99 %10.3f ms, max %10.3f ms%n",
+                            procedure.name(),
+                            stats.calls(),
+                            stats.rows() / (double) stats.calls(),
+                            stats.p50Nanos() / 1_000_000.0,
+                            stats.p90Nanos() / 1_000_000.0,
+                            stats.p99Nanos() / 1_000_000.0,
+                            stats.maxNanos() / 1_000_000.0);
+                }
+            }
+        }
+    }
+}
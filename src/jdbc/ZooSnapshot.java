@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024-2024 Chris de Vreeze
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jdbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Binary snapshot of the contents of the "exhibits" and "names" tables of the "Zoo" HSQL database.
+ * <p>
+ * A snapshot is a compact stream of typed column values, without any SQL, so loading it only costs the (batched)
+ * inserts of prepared statements, and no SQL parsing per row. Referential integrity checks are switched off during the
+ * load, because the snapshot was taken from a consistent database. See {@link InMemoryZooDatabase} for its typical use.
+ * <p>
+ * Format: a magic number, followed per table (exhibits first) by its rows, each row preceded by a "more rows" flag.
+ * Nullable values are preceded by a "not null" flag.
+ *
+ * @author Chris de Vreeze
+ */
+public final class ZooSnapshot {
+
+    public record Counts(long exhibits, long names) {
+    }
+
+    private static final int MAGIC = 0x5A4F4F31; // "ZOO1"
+    private static final int BATCH_SIZE = 10_000;
+
+    private ZooSnapshot() {
+    }
+
+    /**
+     * Writes the contents of the "exhibits" and "names" tables, as seen by the given connection, to the given file.
+     */
+    public static Counts write(Connection conn, Path file) throws SQLException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            long exhibits = 0;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, name, num_acres FROM exhibits ORDER BY id")) {
+                while (rs.next()) {
+                    out.writeBoolean(true);
+                    out.writeInt(rs.getInt(1));
+                    writeString(out, rs.getString(2));
+                    writeDecimal(out, rs.getBigDecimal(3));
+                    exhibits += 1;
+                }
+                out.writeBoolean(false);
+            }
+            long names = 0;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, species_id, name FROM names ORDER BY id")) {
+                while (rs.next()) {
+                    out.writeBoolean(true);
+                    out.writeInt(rs.getInt(1));
+                    int speciesId = rs.getInt(2);
+                    writeInteger(out, rs.wasNull() ? null : speciesId);
+                    writeString(out, rs.getString(3));
+                    names += 1;
+                }
+                out.writeBoolean(false);
+            }
+            return new Counts(exhibits, names);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Inserts the rows of the snapshot file into the (existing, typically empty) "exhibits" and "names" tables, in one
+     * transaction. The auto-commit mode of the connection is restored afterwards.
+     */
+    public static Counts load(Path file, Connection conn) throws SQLException {
+        return JdbcSupport.inTransaction(c -> {
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+                 Statement stmt = c.createStatement()) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a Zoo snapshot: " + file);
+                }
+                stmt.execute("SET DATABASE REFERENTIAL INTEGRITY FALSE");
+                try {
+                    long exhibits = loadExhibits(in, c);
+                    long names = loadNames(in, c);
+                    return new Counts(exhibits, names);
+                } finally {
+                    stmt.execute("SET DATABASE REFERENTIAL INTEGRITY TRUE");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).apply(conn);
+    }
+
+    private static long loadExhibits(DataInputStream in, Connection conn) throws IOException, SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(ZooDataGenerator.INSERT_EXHIBIT)) {
+            long count = 0;
+            while (in.readBoolean()) {
+                ps.setInt(1, in.readInt());
+                ps.setString(2, readString(in));
+                ps.setBigDecimal(3, readDecimal(in));
+                count = addBatch(ps, count);
+            }
+            flushBatch(ps, count);
+            return count;
+        }
+    }
+
+    private static long loadNames(DataInputStream in, Connection conn) throws IOException, SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(ZooDataGenerator.INSERT_NAME)) {
+            long count = 0;
+            while (in.readBoolean()) {
+                ps.setInt(1, in.readInt());
+                if (in.readBoolean()) {
+                    ps.setInt(2, in.readInt());
+                } else {
+                    ps.setNull(2, Types.INTEGER);
+                }
+                ps.setString(3, readString(in));
+                count = addBatch(ps, count);
+            }
+            flushBatch(ps, count);
+            return count;
+        }
+    }
+
+    private static long addBatch(PreparedStatement ps, long count) throws SQLException {
+        ps.addBatch();
+        if ((count + 1) % BATCH_SIZE == 0) {
+            ps.executeBatch();
+        }
+        return count + 1;
+    }
+
+    private static void flushBatch(PreparedStatement ps, long count) throws SQLException {
+        // HSQLDB does not accept an empty batch
+        if (count % BATCH_SIZE != 0) {
+            ps.executeBatch();
+        }
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            out.writeByte(value.scale());
+            out.writeByte(unscaled.length);
+            out.write(unscaled);
+        }
+    }
+
+    private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int scale = in.readByte();
+        byte[] unscaled = new byte[in.readUnsignedByte()];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}